@@ -0,0 +1,163 @@
+package com.mall.cache;
+
+import com.mall.dao.CategoryMapper;
+import com.mall.pojo.Category;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 类目内存索引：parentId -> 子类目 的邻接表 + 每个类目预先算好的全部子孙id
+ *
+ * 索引整体不可变，重建后一次性替换引用，读请求不加锁、不查库
+ * 类目变更后调用 refresh()，另有定时任务兜底重新加载
+ */
+@Slf4j
+@Component
+public class CategoryIndex {
+
+	private static final long RELOAD_INTERVAL_MINUTES = 5;
+
+	private static final String ALL_CATEGORIES = "all";
+
+	@Autowired
+	private CategoryMapper categoryMapper;
+
+	private volatile Snapshot snapshot;
+
+	/** 并发的首次加载共享同一次 selectAll */
+	private final SingleFlight<String, Snapshot> reloads = new SingleFlight<>();
+
+	/** 每次从mysql加载前取号，只有比当前索引更晚开始的加载才能替换它，先开始的慢加载不会覆盖后开始的 */
+	private final AtomicLong loadSeq = new AtomicLong();
+
+	private long installedSeq;
+
+	private final ScheduledExecutorService reloader =
+			Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "category-index-reload");
+				t.setDaemon(true);
+				return t;
+			});
+
+	public CategoryIndex() {
+		reloader.scheduleWithFixedDelay(() -> {
+			try {
+				refresh();
+			} catch (RuntimeException e) {
+				log.error("[CategoryIndex] 定时重新加载失败，继续使用旧索引", e);
+			}
+		}, RELOAD_INTERVAL_MINUTES, RELOAD_INTERVAL_MINUTES, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * 全部类目，只读
+	 */
+	public List<Category> categories() {
+		return snapshot().categories;
+	}
+
+	/**
+	 * 该类目所有子孙类目id（不含自身），类目不存在或没有子类目时返回空集合，只读
+	 */
+	public Set<Integer> descendantIds(Integer id) {
+		return snapshot().descendantIds.getOrDefault(id, Collections.emptySet());
+	}
+
+	/**
+	 * 类目数据的版本：类目数 + 最大 update_time，任一类目增删改都会变化，用作 ETag
+	 */
+	public String version() {
+		Snapshot current = snapshot();
+		return current.categories.size() + "-" + current.lastModified;
+	}
+
+	/**
+	 * 所有类目中最大的 update_time（毫秒），没有类目时为0
+	 */
+	public long lastModified() {
+		return snapshot().lastModified;
+	}
+
+	/**
+	 * 类目变更后调用：从mysql重新构建索引并替换
+	 * 不与进行中的加载合并——那次加载可能在类目写入前就读过了，必须在写入后重新读一次
+	 */
+	public void refresh() {
+		reload();
+	}
+
+	private Snapshot reload() {
+		long seq = loadSeq.incrementAndGet();
+		Snapshot loaded = new Snapshot(categoryMapper.selectAll());
+		synchronized (this) {
+			if (seq > installedSeq) {
+				installedSeq = seq;
+				snapshot = loaded;
+			}
+		}
+		log.info("[CategoryIndex] 已重新加载 {} 个类目", loaded.categories.size());
+		return loaded;
+	}
+
+	private Snapshot snapshot() {
+		Snapshot current = snapshot;
+		if (current == null) {
+			reloads.load(ALL_CATEGORIES, this::reload);
+			current = snapshot;
+		}
+		return current;
+	}
+
+	private static class Snapshot {
+		final List<Category> categories;
+		final Map<Integer, List<Integer>> childIds = new HashMap<>();
+		final Map<Integer, Set<Integer>> descendantIds = new HashMap<>();
+		final long lastModified;
+
+		Snapshot(List<Category> categories) {
+			this.categories = Collections.unmodifiableList(new ArrayList<>(categories));
+			long maxUpdateTime = 0;
+			for (Category category : categories) {
+				childIds.computeIfAbsent(category.getParentId(), k -> new ArrayList<>()).add(category.getId());
+				if (category.getUpdateTime() != null) {
+					maxUpdateTime = Math.max(maxUpdateTime, category.getUpdateTime().getTime());
+				}
+			}
+			lastModified = maxUpdateTime;
+			for (Category category : categories) {
+				collect(category.getId(), new HashSet<>());
+			}
+		}
+
+		/**
+		 * 自底向上计算子孙集合，已算过的直接复用，总体O(n)次合并
+		 * @param path 当前递归路径，防止脏数据成环导致死循环
+		 */
+		private Set<Integer> collect(Integer id, Set<Integer> path) {
+			Set<Integer> result = descendantIds.get(id);
+			if (result != null) {
+				return result;
+			}
+			if (!path.add(id)) {
+				log.warn("[CategoryIndex] 类目 {} 存在环，忽略", id);
+				return Collections.emptySet();
+			}
+			result = new HashSet<>();
+			for (Integer childId : childIds.getOrDefault(id, Collections.emptyList())) {
+				result.add(childId);
+				result.addAll(collect(childId, path));
+			}
+			path.remove(id);
+			result = Collections.unmodifiableSet(result);
+			descendantIds.put(id, result);
+			return result;
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package com.mall.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 进程内有界 LRU 缓存，条目带过期时间
+ * 按 key 的 hash 分段，每段一个 access-order 的 LinkedHashMap，段内加锁，降低并发读写的锁竞争
+ */
+public class LocalLruCache<K, V> {
+
+	private final Segment<K, V>[] segments;
+
+	private final LongAdder evictions = new LongAdder();
+
+	@SuppressWarnings("unchecked")
+	public LocalLruCache(int maximumSize, int segmentCount) {
+		segments = new Segment[segmentCount];
+		int segmentSize = Math.max(1, maximumSize / segmentCount);
+		for (int i = 0; i < segmentCount; i++) {
+			segments[i] = new Segment<>(segmentSize, evictions);
+		}
+	}
+
+	/**
+	 * @return 不存在或已过期时返回null
+	 */
+	public V get(K key) {
+		Segment<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			CacheEntry<V> entry = segment.get(key);
+			if (entry == null) {
+				return null;
+			}
+			if (entry.expireAt < System.currentTimeMillis()) {
+				segment.remove(key);
+				return null;
+			}
+			return entry.value;
+		}
+	}
+
+	public void put(K key, V value, long ttlMillis) {
+		Segment<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			segment.put(key, new CacheEntry<>(value, System.currentTimeMillis() + ttlMillis));
+		}
+	}
+
+	public void remove(K key) {
+		Segment<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			segment.remove(key);
+		}
+	}
+
+	public void clear() {
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * 因容量不足被淘汰的条目数
+	 */
+	public long evictionCount() {
+		return evictions.sum();
+	}
+
+	private Segment<K, V> segmentFor(K key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segments[(h & 0x7fffffff) % segments.length];
+	}
+
+	private static class CacheEntry<V> {
+		final V value;
+		final long expireAt;
+
+		CacheEntry(V value, long expireAt) {
+			this.value = value;
+			this.expireAt = expireAt;
+		}
+	}
+
+	private static class Segment<K, V> extends LinkedHashMap<K, CacheEntry<V>> {
+		private final int maximumSize;
+		private final LongAdder evictions;
+
+		Segment(int maximumSize, LongAdder evictions) {
+			super(16, 0.75f, true);
+			this.maximumSize = maximumSize;
+			this.evictions = evictions;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+			if (size() > maximumSize) {
+				evictions.increment();
+				return true;
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,467 @@
+package com.mall.cache;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.mall.dao.ProductMapper;
+import com.mall.pojo.Product;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 商品两级缓存：进程内LRU(一级) -> redis(二级) -> mysql
+ *
+ * 一级缓存TTL很短，只用来挡住热点商品；跨节点的一致性靠二级缓存
+ * 商品信息与库存分开缓存：库存(连同 update_time)是单独的小条目，下单、取消只清库存条目(evictStock)，
+ * 畅销商品的详情不会因为每一单都被清掉；改商品信息、状态时调用 evict，两者都清
+ * 写库后清缓存，事务中会在提交后再清一次；每次清缓存都递增该商品的版本号，
+ * 回源时先记下版本号，写回 redis 时版本号已变（期间有写入）就不写，防止把提交前读到的旧值写回
+ * 不存在的商品也会短暂缓存，防止缓存穿透
+ *
+ * 返回的 Product 在多个请求间共享，调用方只读，不要修改
+ */
+@Slf4j
+@Component
+public class ProductCache {
+
+	private static final String PRODUCT_REDIS_KEY_TEMPLATE = "product_%d";
+
+	/** 值为 库存:update_time毫秒 */
+	private static final String STOCK_REDIS_KEY_TEMPLATE = "product_stock_%d";
+
+	private static final String VERSION_REDIS_KEY_TEMPLATE = "product_version_%d";
+
+	private static final int LOCAL_MAXIMUM_SIZE = 10_000;
+
+	private static final int LOCAL_SEGMENT_COUNT = 16;
+
+	private static final long LOCAL_TTL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+	/** 库存在其它节点变化时不会清本地缓存，本地只缓存很短时间 */
+	private static final long LOCAL_STOCK_TTL_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+	private static final long REDIS_TTL_SECONDS = TimeUnit.MINUTES.toSeconds(30);
+
+	/** 随机抖动，避免同一批写入的key同时过期 */
+	private static final long REDIS_TTL_JITTER_SECONDS = TimeUnit.MINUTES.toSeconds(5);
+
+	private static final long MISSING_TTL_SECONDS = 60;
+
+	/** 版本号只需比一次回源长；过期后按0处理，期间再有清缓存也会让版本号变化 */
+	private static final long VERSION_TTL_SECONDS = TimeUnit.HOURS.toSeconds(1);
+
+	private static final String NO_VERSION = "0";
+
+	/** 不存在的商品在redis中存空串，本地存该标记 */
+	private static final Product MISSING = new Product();
+
+	private static final String MISSING_VALUE = "";
+
+	@Autowired
+	private ProductMapper productMapper;
+
+	@Autowired
+	private StringRedisTemplate redisTemplate;
+
+	@Autowired
+	private RedisScript<List> productCachePutScript;
+
+	private final Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd HH:mm:ss.SSS").create();
+
+	private final LocalLruCache<Integer, Product> localCache = new LocalLruCache<>(LOCAL_MAXIMUM_SIZE, LOCAL_SEGMENT_COUNT);
+
+	private final LocalLruCache<Integer, Stock> localStocks = new LocalLruCache<>(LOCAL_MAXIMUM_SIZE, LOCAL_SEGMENT_COUNT);
+
+	/** 同一商品并发未命中时只回源一次 */
+	private final SingleFlight<Integer, Product> productLoads = new SingleFlight<>();
+
+	private final LongAdder localHits = new LongAdder();
+
+	private final LongAdder redisHits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	/** 回源后因期间有写入而没有写回 redis 的次数 */
+	private final LongAdder staleLoads = new LongAdder();
+
+	// 定时打印命中率，用于评估容量
+	private final ScheduledExecutorService statsLogger =
+			Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "product-cache-stats");
+				t.setDaemon(true);
+				return t;
+			});
+
+	@PostConstruct
+	public void init() {
+		statsLogger.scheduleAtFixedRate(() -> log.info("[ProductCache] {}", stats()), 5, 5, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * @return 商品不存在时返回null
+	 */
+	public Product get(Integer productId) {
+		Product product = localCache.get(productId);
+		Stock stock = localStocks.get(productId);
+		if (complete(product, stock)) {
+			localHits.increment();
+			return unwrap(merge(product, stock));
+		}
+
+		List<String> values = redisTemplate.opsForValue().multiGet(Arrays.asList(
+				redisKey(productId), stockRedisKey(productId)));
+		product = decode(values == null ? null : values.get(0));
+		stock = decodeStock(values == null ? null : values.get(1));
+		if (complete(product, stock)) {
+			redisHits.increment();
+			putLocal(productId, product, stock);
+			return unwrap(merge(product, stock));
+		}
+
+		misses.increment();
+		return unwrap(productLoads.load(productId, () -> load(productId)));
+	}
+
+	/**
+	 * 批量获取：本地 -> redis MGET -> mysql IN，每层最多一次往返
+	 * @return productId -> Product，不存在的商品不在map中
+	 */
+	public Map<Integer, Product> getAll(Collection<Integer> productIds) {
+		Map<Integer, Product> result = new HashMap<>();
+		List<Integer> localMissIds = new ArrayList<>();
+		for (Integer productId : productIds) {
+			Product product = localCache.get(productId);
+			Stock stock = localStocks.get(productId);
+			if (complete(product, stock)) {
+				localHits.increment();
+				result.put(productId, merge(product, stock));
+			} else {
+				localMissIds.add(productId);
+			}
+		}
+		if (localMissIds.isEmpty()) {
+			result.values().removeIf(product -> product == MISSING);
+			return result;
+		}
+
+		//每个商品依次读 商品信息、库存、版本号 三个key
+		List<String> keys = new ArrayList<>();
+		for (Integer productId : localMissIds) {
+			keys.add(redisKey(productId));
+			keys.add(stockRedisKey(productId));
+			keys.add(versionRedisKey(productId));
+		}
+		List<String> values = redisTemplate.opsForValue().multiGet(keys);
+
+		Map<Integer, String> versions = new HashMap<>();
+		Set<Integer> productDbIds = new HashSet<>();
+		Map<Integer, Product> stockOnlyMisses = new HashMap<>();
+		for (int i = 0; i < localMissIds.size(); i++) {
+			Integer productId = localMissIds.get(i);
+			Product product = decode(values == null ? null : values.get(3 * i));
+			Stock stock = decodeStock(values == null ? null : values.get(3 * i + 1));
+			if (complete(product, stock)) {
+				redisHits.increment();
+				putLocal(productId, product, stock);
+				result.put(productId, merge(product, stock));
+				continue;
+			}
+			String version = values == null ? null : values.get(3 * i + 2);
+			versions.put(productId, version == null ? NO_VERSION : version);
+			if (product == null) {
+				productDbIds.add(productId);
+			} else {
+				stockOnlyMisses.put(productId, product);
+			}
+		}
+
+		if (!versions.isEmpty()) {
+			misses.add(versions.size());
+			Map<Integer, Product> loaded = new HashMap<>();
+			Map<Integer, Stock> stocks = new HashMap<>();
+			if (!productDbIds.isEmpty()) {
+				for (Product product : productMapper.selectByProductIdSetWithoutLock(productDbIds)) {
+					loaded.put(product.getId(), product);
+					stocks.put(product.getId(), new Stock(product));
+				}
+				for (Integer productId : productDbIds) {
+					loaded.putIfAbsent(productId, MISSING);
+				}
+			}
+			if (!stockOnlyMisses.isEmpty()) {
+				stocks.putAll(loadStocks(stockOnlyMisses.keySet()));
+			}
+			put(loaded, stocks, versions);
+
+			for (Map.Entry<Integer, Product> entry : loaded.entrySet()) {
+				result.put(entry.getKey(), merge(entry.getValue(), stocks.get(entry.getKey())));
+			}
+			for (Map.Entry<Integer, Product> entry : stockOnlyMisses.entrySet()) {
+				result.put(entry.getKey(), merge(entry.getValue(), stocks.get(entry.getKey())));
+			}
+		}
+
+		result.values().removeIf(product -> product == MISSING);
+		return result;
+	}
+
+	/**
+	 * 商品信息、状态写库后调用：删除商品信息和库存的两级缓存，事务中提交后再删一次
+	 */
+	public void evict(Integer productId) {
+		evict(productId, true);
+	}
+
+	/**
+	 * 只有库存变化（下单扣减、取消回补、热点商品回写汇总）时调用：只删除库存条目，商品信息缓存保留
+	 */
+	public void evictStock(Integer productId) {
+		evict(productId, false);
+	}
+
+	public Map<String, Long> stats() {
+		long local = localHits.sum();
+		long redis = redisHits.sum();
+		long miss = misses.sum();
+		Map<String, Long> stats = new LinkedHashMap<>();
+		stats.put("localHits", local);
+		stats.put("redisHits", redis);
+		stats.put("misses", miss);
+		stats.put("staleLoads", staleLoads.sum());
+		stats.put("localEvictions", localCache.evictionCount());
+		stats.put("localSize", (long) localCache.size());
+		stats.put("localStockEvictions", localStocks.evictionCount());
+		stats.put("localStockSize", (long) localStocks.size());
+		return stats;
+	}
+
+	/**
+	 * 回源mysql并回填两级缓存，由 productLoads 保证同一商品同时只有一个线程执行
+	 * 先重查redis：未命中redis后、上一次回源刚结束才进入的线程，直接用上一次回填的值
+	 * 只缺库存条目时只查库存列
+	 */
+	private Product load(Integer productId) {
+		List<String> values = redisTemplate.opsForValue().multiGet(Arrays.asList(
+				redisKey(productId), stockRedisKey(productId), versionRedisKey(productId)));
+		Product product = decode(values == null ? null : values.get(0));
+		Stock stock = decodeStock(values == null ? null : values.get(1));
+		if (complete(product, stock)) {
+			putLocal(productId, product, stock);
+			return merge(product, stock);
+		}
+		//版本号必须在读库之前读取
+		String version = values == null || values.get(2) == null ? NO_VERSION : values.get(2);
+		Map<Integer, String> versions = Collections.singletonMap(productId, version);
+
+		if (product == null) {
+			Product row = productMapper.selectByPrimaryKey(productId);
+			product = row == null ? MISSING : row;
+			stock = row == null ? null : new Stock(row);
+			put(Collections.singletonMap(productId, product),
+					stock == null ? Collections.emptyMap() : Collections.singletonMap(productId, stock),
+					versions);
+		} else {
+			stock = loadStocks(Collections.singleton(productId)).get(productId);
+			if (stock != null) {
+				put(Collections.emptyMap(), Collections.singletonMap(productId, stock), versions);
+			}
+		}
+		return merge(product, stock);
+	}
+
+	private Map<Integer, Stock> loadStocks(Set<Integer> productIds) {
+		Map<Integer, Stock> stocks = new HashMap<>();
+		for (Product product : productMapper.selectStockByProductIdSet(productIds)) {
+			stocks.put(product.getId(), new Stock(product));
+		}
+		return stocks;
+	}
+
+	private void evict(Integer productId, boolean product) {
+		doEvict(productId, product);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					doEvict(productId, product);
+				}
+			});
+		}
+	}
+
+	/**
+	 * 先递增版本号再删key：删除之前已开始的回源都不会再写回
+	 */
+	private void doEvict(Integer productId, boolean product) {
+		localStocks.remove(productId);
+		if (product) {
+			localCache.remove(productId);
+		}
+		redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+			StringRedisConnection stringConnection = (StringRedisConnection) connection;
+			stringConnection.incr(versionRedisKey(productId));
+			stringConnection.expire(versionRedisKey(productId), VERSION_TTL_SECONDS);
+			if (product) {
+				stringConnection.del(redisKey(productId), stockRedisKey(productId));
+			} else {
+				stringConnection.del(stockRedisKey(productId));
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * 写入两级缓存，redis 用一次脚本调用写完；版本号已变的商品不写 redis，也不写本地
+	 * @param versions productId -> 读库前的版本号
+	 */
+	private void put(Map<Integer, Product> products, Map<Integer, Stock> stocks, Map<Integer, String> versions) {
+		List<String> keys = new ArrayList<>();
+		List<String> args = new ArrayList<>();
+		for (Map.Entry<Integer, Product> entry : products.entrySet()) {
+			keys.add(redisKey(entry.getKey()));
+			keys.add(versionRedisKey(entry.getKey()));
+			args.add(versions.get(entry.getKey()));
+			if (entry.getValue() == MISSING) {
+				args.add(String.valueOf(MISSING_TTL_SECONDS));
+				args.add(MISSING_VALUE);
+			} else {
+				args.add(String.valueOf(redisTtlSeconds()));
+				args.add(gson.toJson(entry.getValue()));
+			}
+		}
+		for (Map.Entry<Integer, Stock> entry : stocks.entrySet()) {
+			keys.add(stockRedisKey(entry.getKey()));
+			keys.add(versionRedisKey(entry.getKey()));
+			args.add(versions.get(entry.getKey()));
+			args.add(String.valueOf(redisTtlSeconds()));
+			args.add(entry.getValue().encode());
+		}
+		if (keys.isEmpty()) {
+			return;
+		}
+
+		List<?> written = redisTemplate.execute(productCachePutScript, keys, args.toArray());
+		int i = 0;
+		for (Map.Entry<Integer, Product> entry : products.entrySet()) {
+			if (isWritten(written, i++)) {
+				localCache.put(entry.getKey(), entry.getValue(), LOCAL_TTL_MILLIS);
+			} else {
+				staleLoads.increment();
+			}
+		}
+		for (Map.Entry<Integer, Stock> entry : stocks.entrySet()) {
+			if (isWritten(written, i++)) {
+				localStocks.put(entry.getKey(), entry.getValue(), LOCAL_STOCK_TTL_MILLIS);
+			}
+		}
+	}
+
+	private boolean isWritten(List<?> written, int index) {
+		return written != null && index < written.size() && Long.valueOf(1).equals(written.get(index));
+	}
+
+	private void putLocal(Integer productId, Product product, Stock stock) {
+		localCache.put(productId, product, LOCAL_TTL_MILLIS);
+		if (stock != null) {
+			localStocks.put(productId, stock, LOCAL_STOCK_TTL_MILLIS);
+		}
+	}
+
+	/**
+	 * 商品信息和库存都已缓存；不存在的商品没有库存条目
+	 */
+	private boolean complete(Product product, Stock stock) {
+		return product != null && (product == MISSING || stock != null);
+	}
+
+	/**
+	 * 用库存条目中的库存、update_time 覆盖商品信息中的（商品信息只在改商品时才清，其中的库存可能已过时）
+	 * 两者相同时直接返回缓存的对象，不复制
+	 */
+	private Product merge(Product product, Stock stock) {
+		if (product == MISSING || stock == null
+				|| (Objects.equals(product.getStock(), stock.stock)
+				&& product.getUpdateTime() != null && product.getUpdateTime().getTime() == stock.updateTime)) {
+			return product;
+		}
+		Product merged = new Product();
+		BeanUtils.copyProperties(product, merged);
+		merged.setStock(stock.stock);
+		if (stock.updateTime > 0) {
+			merged.setUpdateTime(new Date(stock.updateTime));
+		}
+		return merged;
+	}
+
+	private long redisTtlSeconds() {
+		return REDIS_TTL_SECONDS + ThreadLocalRandom.current().nextLong(REDIS_TTL_JITTER_SECONDS);
+	}
+
+	private Product decode(String value) {
+		if (value == null) {
+			return null;
+		}
+		return MISSING_VALUE.equals(value) ? MISSING : gson.fromJson(value, Product.class);
+	}
+
+	private Stock decodeStock(String value) {
+		return value == null ? null : Stock.decode(value);
+	}
+
+	private Product unwrap(Product product) {
+		return product == MISSING ? null : product;
+	}
+
+	private String redisKey(Integer productId) {
+		return String.format(PRODUCT_REDIS_KEY_TEMPLATE, productId);
+	}
+
+	private String stockRedisKey(Integer productId) {
+		return String.format(STOCK_REDIS_KEY_TEMPLATE, productId);
+	}
+
+	private String versionRedisKey(Integer productId) {
+		return String.format(VERSION_REDIS_KEY_TEMPLATE, productId);
+	}
+
+	/**
+	 * 库存条目：库存 + update_time（库存每次变化都会更新 update_time，详情的 ETag/Last-Modified 依赖它）
+	 */
+	private static class Stock {
+		final Integer stock;
+		final long updateTime;
+
+		Stock(Integer stock, long updateTime) {
+			this.stock = stock;
+			this.updateTime = updateTime;
+		}
+
+		Stock(Product product) {
+			this(product.getStock(), product.getUpdateTime() == null ? 0 : product.getUpdateTime().getTime());
+		}
+
+		String encode() {
+			return stock + ":" + updateTime;
+		}
+
+		static Stock decode(String value) {
+			int separator = value.indexOf(':');
+			return new Stock(Integer.valueOf(value.substring(0, separator)), Long.parseLong(value.substring(separator + 1)));
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package com.mall.cache;
+
+import com.github.pagehelper.PageInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 商品列表页缓存（进程内），key = 解析后的类目id集合 + 页码 + 每页条数 + 计数方式
+ * 只缓存前几页，翻得更深的请求直接查库
+ *
+ * 失效按类目：每个类目有一个版本号，缓存条目记录加载时所涉及类目的版本号之和，
+ * 商品上下架/改价/改名后调用 invalidate(categoryId)，该类目版本号+1，包含它的页自然失效
+ * 其他节点靠较短的TTL兜底
+ *
+ * 返回的 PageInfo 在多个请求间共享，调用方只读，不要修改
+ */
+@Slf4j
+@Component
+public class ProductListCache {
+
+	private static final int MAXIMUM_SIZE = 5_000;
+
+	private static final int SEGMENT_COUNT = 16;
+
+	private static final long TTL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+	/** 只缓存前几页 */
+	public static final int MAX_CACHED_PAGE_NUM = 5;
+
+	private final LocalLruCache<String, CachedPage> pages = new LocalLruCache<>(MAXIMUM_SIZE, SEGMENT_COUNT);
+
+	private final ConcurrentMap<Integer, AtomicLong> categoryVersions = new ConcurrentHashMap<>();
+
+	/** 不按类目过滤（全部商品）的列表，任何类目变化都会影响 */
+	private final AtomicLong allVersion = new AtomicLong();
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder invalidations = new LongAdder();
+
+	/** 命中时返回内容的已缓存时长，用于评估数据陈旧程度 */
+	private final LongAdder hitAgeMillis = new LongAdder();
+
+	private final LongAccumulator maxHitAgeMillis = new LongAccumulator(Math::max, 0);
+
+	// 定时打印命中率
+	private final ScheduledExecutorService statsLogger =
+			Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "product-list-cache-stats");
+				t.setDaemon(true);
+				return t;
+			});
+
+	public ProductListCache() {
+		statsLogger.scheduleAtFixedRate(() -> log.info("[ProductListCache] {}", stats()), 5, 5, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * @param categoryIdSet 解析后的类目id集合，空集合表示不按类目过滤
+	 * @param mode 计数方式等其它会影响结果的参数
+	 */
+	public PageInfo get(Set<Integer> categoryIdSet, int pageNum, int pageSize, Object mode,
+						Supplier<PageInfo> loader) {
+		if (pageNum > MAX_CACHED_PAGE_NUM) {
+			return loader.get();
+		}
+
+		String key = key(categoryIdSet, pageNum, pageSize, mode);
+		long version = version(categoryIdSet);
+		CachedPage cached = pages.get(key);
+		if (cached != null && cached.version == version) {
+			hits.increment();
+			long age = System.currentTimeMillis() - cached.loadedAt;
+			hitAgeMillis.add(age);
+			maxHitAgeMillis.accumulate(age);
+			return cached.page;
+		}
+
+		//版本号在查库前读取，查库期间发生的失效会让这条缓存下次直接作废
+		misses.increment();
+		PageInfo page = loader.get();
+		pages.put(key, new CachedPage(page, version), TTL_MILLIS);
+		return page;
+	}
+
+	/**
+	 * 类目下的商品状态、价格、名称变化后调用
+	 */
+	public void invalidate(Integer categoryId) {
+		invalidations.increment();
+		categoryVersions.computeIfAbsent(categoryId, k -> new AtomicLong()).incrementAndGet();
+		allVersion.incrementAndGet();
+	}
+
+	public Map<String, Long> stats() {
+		long hit = hits.sum();
+		long miss = misses.sum();
+		Map<String, Long> stats = new LinkedHashMap<>();
+		stats.put("hits", hit);
+		stats.put("misses", miss);
+		stats.put("hitRatioPercent", hit + miss == 0 ? 0 : hit * 100 / (hit + miss));
+		stats.put("invalidations", invalidations.sum());
+		stats.put("avgHitAgeMillis", hit == 0 ? 0 : hitAgeMillis.sum() / hit);
+		stats.put("maxHitAgeMillis", maxHitAgeMillis.get());
+		stats.put("evictions", pages.evictionCount());
+		stats.put("size", (long) pages.size());
+		return stats;
+	}
+
+	/**
+	 * 版本号只增不减，所以只要其中任一类目失效过，和就一定变化
+	 */
+	private long version(Set<Integer> categoryIdSet) {
+		if (categoryIdSet.isEmpty()) {
+			return allVersion.get();
+		}
+		long version = 0;
+		for (Integer categoryId : categoryIdSet) {
+			AtomicLong categoryVersion = categoryVersions.get(categoryId);
+			if (categoryVersion != null) {
+				version += categoryVersion.get();
+			}
+		}
+		return version;
+	}
+
+	private String key(Set<Integer> categoryIdSet, int pageNum, int pageSize, Object mode) {
+		return new TreeSet<>(categoryIdSet) + ":" + pageNum + ":" + pageSize + ":" + mode;
+	}
+
+	private static class CachedPage {
+		final PageInfo page;
+		final long version;
+		final long loadedAt = System.currentTimeMillis();
+
+		CachedPage(PageInfo page, long version) {
+			this.page = page;
+			this.version = version;
+		}
+	}
+}
@@ -0,0 +1,447 @@
+package com.mall.cache;
+
+import com.mall.dao.OrderItemMapper;
+import com.mall.dao.ProductMapper;
+import com.mall.enums.ProductSortEnum;
+import com.mall.enums.ProductStatusEnum;
+import com.mall.pojo.OrderItem;
+import com.mall.pojo.Product;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.DigestUtils;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 商品排序索引：每个叶子类目、每种排序各一个 redis 有序集合，member = productId
+ * score：价格 / 上架时间(create_time 毫秒) / 已支付销量，只收录在售商品
+ *
+ * 查询多个类目（父类目含子类目）时用 ZUNIONSTORE 合并成临时集合并短暂缓存；
+ * 翻页是 ZRANGE，O(log n + 每页条数)，与页码深度无关
+ *
+ * 维护：启动时和定时任务全量重建（多节点时由锁保证同一时刻只有一个节点重建）；订单支付成功后增加销量；商品变更后调用 update；
+ * 翻页时发现、经mysql确认已下架/删除的商品通过 remove 移出
+ */
+@Slf4j
+@Component
+public class ProductSortIndex {
+
+	private static final String SORT_REDIS_KEY_TEMPLATE = "product_sort_%s_%s";
+
+	private static final String ALL_CATEGORIES = "all";
+
+	/** 上次重建时建了索引的类目id，重建时据此删除已没有在售商品的类目 */
+	private static final String INDEXED_CATEGORIES_REDIS_KEY = "product_sort_categories";
+
+	/** 价格升序和降序共用一个集合 */
+	private static final ProductSortEnum[] INDEXED_SORTS = {
+			ProductSortEnum.PRICE_ASC, ProductSortEnum.NEWEST, ProductSortEnum.SALES};
+
+	/** 多类目合并后的临时集合存活时间 */
+	private static final long UNION_TTL_SECONDS = 60;
+
+	private static final int LOAD_BATCH_SIZE = 1000;
+
+	private static final long REBUILD_INTERVAL_MINUTES = 30;
+
+	private static final String REBUILD_LOCK_REDIS_KEY = "product_sort_rebuild_lock";
+
+	/** 锁的过期时间，远大于正常重建耗时；节点宕机时到期自动释放 */
+	private static final long REBUILD_LOCK_MINUTES = 10;
+
+	/** productId -> 上次重建开始后支付的销量 */
+	private static final String SALES_JOURNAL_REDIS_KEY = "product_sort_sales_journal";
+
+	@Autowired
+	private ProductMapper productMapper;
+
+	@Autowired
+	private OrderItemMapper orderItemMapper;
+
+	@Autowired
+	private ProductCache productCache;
+
+	@Autowired
+	private StringRedisTemplate redisTemplate;
+
+	@Autowired
+	private RedisScript<Long> productSortSwapScript;
+
+	@Autowired
+	private RedisScript<Long> lockReleaseScript;
+
+	private final ScheduledExecutorService rebuilder =
+			Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "product-sort-rebuild");
+				t.setDaemon(true);
+				return t;
+			});
+
+	@PostConstruct
+	public void init() {
+		rebuilder.scheduleWithFixedDelay(() -> {
+			try {
+				rebuild();
+			} catch (RuntimeException e) {
+				log.error("[ProductSortIndex] 重建失败，继续使用旧索引", e);
+			}
+		}, 0, REBUILD_INTERVAL_MINUTES, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * 全量重建：写入临时key后 RENAME 覆盖，读请求不会看到半成品
+	 * 各节点都有定时任务，用 redis 锁保证同一时刻只有一个节点在重建；临时key带本次重建的标识，锁过期后也不会与其他节点交错写入
+	 * 重建期间支付的销量记在增量表中，替换上线时原子地取走，再补到新集合上（sales 查询执行期间支付的销量可能多计一次，下次重建修正）
+	 */
+	public void rebuild() {
+		String token = UUID.randomUUID().toString();
+		if (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(
+				REBUILD_LOCK_REDIS_KEY, token, REBUILD_LOCK_MINUTES, TimeUnit.MINUTES))) {
+			log.info("[ProductSortIndex] 其他节点正在重建，跳过");
+			return;
+		}
+		List<String> tmpKeys = new ArrayList<>();
+		try {
+			doRebuild(token, tmpKeys);
+		} finally {
+			//失败时清理没来得及替换上线的临时key（已 RENAME 的不存在，DEL 无影响）
+			if (!tmpKeys.isEmpty()) {
+				redisTemplate.delete(tmpKeys);
+			}
+			redisTemplate.execute(lockReleaseScript, Collections.singletonList(REBUILD_LOCK_REDIS_KEY), token);
+		}
+	}
+
+	private void doRebuild(String token, List<String> tmpKeys) {
+		long start = System.currentTimeMillis();
+		//从这之后支付的销量都会记入增量表
+		redisTemplate.delete(SALES_JOURNAL_REDIS_KEY);
+		Map<Integer, Long> sales = new HashMap<>();
+		for (OrderItem item : orderItemMapper.selectProductSales()) {
+			sales.put(item.getProductId(), item.getQuantity().longValue());
+		}
+
+		//categoryId -> 该类目下的在售商品
+		Map<Integer, List<Product>> byCategory = new HashMap<>();
+		Map<Integer, Integer> productCategories = new HashMap<>();
+		Integer lastId = null;
+		while (true) {
+			List<Product> batch = productMapper.selectCatalogAfter(lastId, LOAD_BATCH_SIZE);
+			for (Product product : batch) {
+				if (ProductStatusEnum.ON_SALE.getCode().equals(product.getStatus())) {
+					byCategory.computeIfAbsent(product.getCategoryId(), k -> new ArrayList<>()).add(product);
+					productCategories.put(product.getId(), product.getCategoryId());
+				}
+			}
+			if (batch.size() < LOAD_BATCH_SIZE) {
+				break;
+			}
+			lastId = batch.get(batch.size() - 1).getId();
+		}
+
+		Set<String> oldCategories = redisTemplate.opsForSet().members(INDEXED_CATEGORIES_REDIS_KEY);
+		for (ProductSortEnum sort : INDEXED_SORTS) {
+			//临时key -> 正式key
+			Map<String, String> renames = new LinkedHashMap<>();
+			String allTmpKey = key(sort, ALL_CATEGORIES) + "_tmp_" + token;
+			for (Map.Entry<Integer, List<Product>> entry : byCategory.entrySet()) {
+				String categoryKey = key(sort, String.valueOf(entry.getKey()));
+				String tmpKey = categoryKey + "_tmp_" + token;
+				tmpKeys.add(tmpKey);
+				renames.put(tmpKey, categoryKey);
+				Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>();
+				for (Product product : entry.getValue()) {
+					tuples.add(new DefaultTypedTuple<>(String.valueOf(product.getId()), score(sort, product, sales)));
+					if (tuples.size() == LOAD_BATCH_SIZE) {
+						addBatch(tmpKey, allTmpKey, tuples);
+						tuples = new HashSet<>();
+					}
+				}
+				if (!tuples.isEmpty()) {
+					addBatch(tmpKey, allTmpKey, tuples);
+				}
+			}
+			if (!byCategory.isEmpty()) {
+				tmpKeys.add(allTmpKey);
+				renames.put(allTmpKey, key(sort, ALL_CATEGORIES));
+			}
+
+			if (sort == ProductSortEnum.SALES) {
+				swapSales(token, renames, productCategories);
+			} else {
+				redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+					StringRedisConnection stringConnection = (StringRedisConnection) connection;
+					for (Map.Entry<String, String> rename : renames.entrySet()) {
+						stringConnection.rename(rename.getKey(), rename.getValue());
+					}
+					return null;
+				});
+			}
+
+			List<String> obsoleteKeys = new ArrayList<>();
+			if (byCategory.isEmpty()) {
+				obsoleteKeys.add(key(sort, ALL_CATEGORIES));
+			}
+			//已没有在售商品的类目，删除旧集合
+			if (oldCategories != null) {
+				for (String categoryId : oldCategories) {
+					if (!byCategory.containsKey(Integer.valueOf(categoryId))) {
+						obsoleteKeys.add(key(sort, categoryId));
+					}
+				}
+			}
+			if (!obsoleteKeys.isEmpty()) {
+				redisTemplate.delete(obsoleteKeys);
+			}
+		}
+
+		redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+			StringRedisConnection stringConnection = (StringRedisConnection) connection;
+			stringConnection.del(INDEXED_CATEGORIES_REDIS_KEY);
+			if (!byCategory.isEmpty()) {
+				stringConnection.sAdd(INDEXED_CATEGORIES_REDIS_KEY, byCategory.keySet().stream()
+						.map(String::valueOf)
+						.toArray(String[]::new));
+			}
+			return null;
+		});
+		log.info("[ProductSortIndex] 重建完成，类目数 {}，耗时 {}ms", byCategory.size(), System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * 每批最多 LOAD_BATCH_SIZE 个 member，一条 ZADD 写入类目集合、一条写入全部商品集合
+	 */
+	private void addBatch(String tmpKey, String allTmpKey, Set<ZSetOperations.TypedTuple<String>> tuples) {
+		redisTemplate.opsForZSet().add(tmpKey, tuples);
+		redisTemplate.opsForZSet().add(allTmpKey, tuples);
+	}
+
+	/**
+	 * 销量集合替换上线的同时取走增量表，把重建期间支付（已累加到旧集合上、随替换丢失）的销量补到新集合
+	 */
+	private void swapSales(String token, Map<String, String> renames, Map<Integer, Integer> productCategories) {
+		String snapshotKey = SALES_JOURNAL_REDIS_KEY + "_" + token;
+		List<String> keys = new ArrayList<>();
+		keys.add(SALES_JOURNAL_REDIS_KEY);
+		keys.add(snapshotKey);
+		for (Map.Entry<String, String> rename : renames.entrySet()) {
+			keys.add(rename.getKey());
+			keys.add(rename.getValue());
+		}
+		Long journaled = redisTemplate.execute(productSortSwapScript, keys);
+		if (journaled == null || journaled == 0) {
+			return;
+		}
+
+		Map<Object, Object> deltas = redisTemplate.opsForHash().entries(snapshotKey);
+		redisTemplate.delete(snapshotKey);
+		redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+			StringRedisConnection stringConnection = (StringRedisConnection) connection;
+			for (Map.Entry<Object, Object> delta : deltas.entrySet()) {
+				Integer categoryId = productCategories.get(Integer.valueOf(delta.getKey().toString()));
+				if (categoryId == null) {
+					continue;
+				}
+				String member = delta.getKey().toString();
+				double quantity = Double.parseDouble(delta.getValue().toString());
+				stringConnection.zIncrBy(key(ProductSortEnum.SALES, String.valueOf(categoryId)), quantity, member);
+				stringConnection.zIncrBy(key(ProductSortEnum.SALES, ALL_CATEGORIES), quantity, member);
+			}
+			return null;
+		});
+		log.info("[ProductSortIndex] 补上重建期间的销量，商品数 {}", deltas.size());
+	}
+
+	/**
+	 * 商品写库（提交）后调用：在售则更新各排序的 score，否则移出索引
+	 * @param previousCategoryId 修改前的类目，类目有变化时从旧类目的集合中移除；新建商品传null
+	 */
+	public void update(Product product, Integer previousCategoryId) {
+		String member = String.valueOf(product.getId());
+		boolean onSale = ProductStatusEnum.ON_SALE.getCode().equals(product.getStatus());
+		Double sales = redisTemplate.opsForZSet().score(key(ProductSortEnum.SALES, ALL_CATEGORIES), member);
+		Map<Integer, Long> salesMap = Collections.singletonMap(product.getId(), sales == null ? 0L : sales.longValue());
+		redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+			StringRedisConnection stringConnection = (StringRedisConnection) connection;
+			for (ProductSortEnum sort : INDEXED_SORTS) {
+				String categoryKey = key(sort, String.valueOf(product.getCategoryId()));
+				String allKey = key(sort, ALL_CATEGORIES);
+				if (onSale) {
+					double score = score(sort, product, salesMap);
+					stringConnection.zAdd(categoryKey, score, member);
+					stringConnection.zAdd(allKey, score, member);
+					stringConnection.sAdd(INDEXED_CATEGORIES_REDIS_KEY, String.valueOf(product.getCategoryId()));
+				} else {
+					stringConnection.zRem(categoryKey, member);
+					stringConnection.zRem(allKey, member);
+				}
+				if (previousCategoryId != null && !previousCategoryId.equals(product.getCategoryId())) {
+					stringConnection.zRem(key(sort, String.valueOf(previousCategoryId)), member);
+				}
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * 把翻页时发现的已下架/删除商品移出索引：各排序的全部商品集合、所属类目集合，以及本次查询用到的合并集合
+	 * @param stale productId -> 类目id，商品已删除不知道类目时为null，从本次查询的每个类目集合中移除
+	 */
+	public void remove(ProductSortEnum sort, Set<Integer> categoryIdSet, Map<Integer, Integer> stale) {
+		String queryKey = resolveKey(sort, categoryIdSet);
+		redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+			StringRedisConnection stringConnection = (StringRedisConnection) connection;
+			for (Map.Entry<Integer, Integer> entry : stale.entrySet()) {
+				String member = String.valueOf(entry.getKey());
+				Collection<Integer> categoryIds = entry.getValue() == null
+						? categoryIdSet : Collections.singleton(entry.getValue());
+				for (ProductSortEnum indexed : INDEXED_SORTS) {
+					stringConnection.zRem(key(indexed, ALL_CATEGORIES), member);
+					for (Integer categoryId : categoryIds) {
+						stringConnection.zRem(key(indexed, String.valueOf(categoryId)), member);
+					}
+				}
+				stringConnection.zRem(queryKey, member);
+			}
+			return null;
+		});
+		log.info("[ProductSortIndex] 移出已下架商品 {}", stale.keySet());
+	}
+
+	/**
+	 * 订单支付成功后调用，事务中会在提交后再累加销量
+	 */
+	public void onPaid(List<OrderItem> orderItems) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					addSales(orderItems);
+				}
+			});
+		} else {
+			addSales(orderItems);
+		}
+	}
+
+	/**
+	 * @param categoryIdSet 解析后的类目id集合，空集合表示全部商品
+	 * @return 本页商品id（按排序）与总数
+	 */
+	public SortedPage page(ProductSortEnum sort, Set<Integer> categoryIdSet, int offset, int limit) {
+		String key = resolveKey(sort, categoryIdSet);
+		boolean descending = sort != ProductSortEnum.PRICE_ASC;
+		Set<String> members = descending
+				? redisTemplate.opsForZSet().reverseRange(key, offset, offset + limit - 1)
+				: redisTemplate.opsForZSet().range(key, offset, offset + limit - 1);
+		Long total = redisTemplate.opsForZSet().zCard(key);
+
+		List<Integer> productIds = new ArrayList<>();
+		if (members != null) {
+			for (String member : members) {
+				productIds.add(Integer.valueOf(member));
+			}
+		}
+		return new SortedPage(productIds, total == null ? 0 : total);
+	}
+
+	private void addSales(List<OrderItem> orderItems) {
+		Map<Integer, Product> products = productCache.getAll(orderItems.stream()
+				.map(OrderItem::getProductId)
+				.collect(Collectors.toSet()));
+		redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+			StringRedisConnection stringConnection = (StringRedisConnection) connection;
+			for (OrderItem item : orderItems) {
+				Product product = products.get(item.getProductId());
+				if (product == null || !ProductStatusEnum.ON_SALE.getCode().equals(product.getStatus())) {
+					continue;
+				}
+				String member = String.valueOf(item.getProductId());
+				stringConnection.zIncrBy(key(ProductSortEnum.SALES, String.valueOf(product.getCategoryId())),
+						item.getQuantity(), member);
+				stringConnection.zIncrBy(key(ProductSortEnum.SALES, ALL_CATEGORIES), item.getQuantity(), member);
+				stringConnection.hIncrBy(SALES_JOURNAL_REDIS_KEY, member, item.getQuantity());
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * 单个类目直接用该类目的集合；多个类目合并后缓存 UNION_TTL_SECONDS
+	 */
+	private String resolveKey(ProductSortEnum sort, Set<Integer> categoryIdSet) {
+		if (categoryIdSet.isEmpty()) {
+			return key(sort, ALL_CATEGORIES);
+		}
+		if (categoryIdSet.size() == 1) {
+			return key(sort, String.valueOf(categoryIdSet.iterator().next()));
+		}
+
+		List<String> keys = new ArrayList<>();
+		for (Integer categoryId : new TreeSet<>(categoryIdSet)) {
+			keys.add(key(sort, String.valueOf(categoryId)));
+		}
+		String unionKey = key(sort, "union_" + DigestUtils.md5DigestAsHex(
+				String.join(",", keys).getBytes(StandardCharsets.UTF_8)));
+		if (!Boolean.TRUE.equals(redisTemplate.hasKey(unionKey))) {
+			redisTemplate.opsForZSet().unionAndStore(keys.get(0), keys.subList(1, keys.size()), unionKey);
+			redisTemplate.expire(unionKey, UNION_TTL_SECONDS, TimeUnit.SECONDS);
+		}
+		return unionKey;
+	}
+
+	private double score(ProductSortEnum sort, Product product, Map<Integer, Long> sales) {
+		switch (sort) {
+			case PRICE_ASC:
+			case PRICE_DESC:
+				return product.getPrice() == null ? 0 : product.getPrice().doubleValue();
+			case NEWEST:
+				return product.getCreateTime() == null ? 0 : product.getCreateTime().getTime();
+			case SALES:
+				return sales.getOrDefault(product.getId(), 0L);
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * PRICE_DESC 与 PRICE_ASC 是同一个集合
+	 */
+	private String key(ProductSortEnum sort, String suffix) {
+		String name = sort == ProductSortEnum.PRICE_DESC ? ProductSortEnum.PRICE_ASC.name() : sort.name();
+		return String.format(SORT_REDIS_KEY_TEMPLATE, name.toLowerCase(Locale.ROOT), suffix);
+	}
+
+	public static class SortedPage {
+		private final List<Integer> productIds;
+		private final long total;
+
+		SortedPage(List<Integer> productIds, long total) {
+			this.productIds = productIds;
+			this.total = total;
+		}
+
+		public List<Integer> getProductIds() {
+			return productIds;
+		}
+
+		public long getTotal() {
+			return total;
+		}
+	}
+}
@@ -0,0 +1,248 @@
+package com.mall.cache;
+
+import com.mall.dao.ProductMapper;
+import com.mall.enums.ProductStatusEnum;
+import com.mall.pojo.Product;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 库存预占：在售商品的库存镜像到 redis，下单时先用 lua 原子预占，预占成功才进入mysql事务
+ * 抢购时库存已空的请求在 redis 一次往返内被拒绝，不会排队等 mysql 行锁
+ *
+ * redis 只是闸门，mysql 的条件扣减(deductStock)仍是最终判断，redis 数量偏多不会超卖，偏少最多误拒一段时间
+ * 两个 hash：可售库存、已预占但事务尚未结束的数量；下单事务提交后结清预占，回滚后归还库存；订单取消/超时关单后归还库存
+ * 对账任务定时按 mysql 库存 - 预占数量 修正可售库存，补齐新上架商品，移除已下架商品
+ */
+@Slf4j
+@Component
+public class StockReservation {
+
+	private static final String STOCK_REDIS_KEY = "product_stock";
+
+	private static final String RESERVED_REDIS_KEY = "product_stock_reserved";
+
+	private static final int LOAD_BATCH_SIZE = 1000;
+
+	private static final long RECONCILE_INTERVAL_SECONDS = 60;
+
+	@Autowired
+	private ProductMapper productMapper;
+
+	@Autowired
+	private StringRedisTemplate redisTemplate;
+
+	@Autowired
+	private RedisScript<Long> stockReserveScript;
+
+	@Autowired
+	private RedisScript<Long> stockReleaseScript;
+
+	@Autowired
+	private RedisScript<Long> stockReconcileScript;
+
+	/** 上一轮对账看到的预占数量，两轮之间没变化的视为泄漏 */
+	private Map<Object, Object> lastReserved = Collections.emptyMap();
+
+	private final ScheduledExecutorService reconciler =
+			Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "stock-reservation-reconcile");
+				t.setDaemon(true);
+				return t;
+			});
+
+	@PostConstruct
+	public void init() {
+		reconciler.scheduleWithFixedDelay(() -> {
+			try {
+				reconcile();
+			} catch (RuntimeException e) {
+				log.error("[StockReservation] 对账失败", e);
+			}
+		}, 0, RECONCILE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * 在下单事务中调用：预占成功后，事务提交时结清预占，回滚时归还库存
+	 * 下单成功前务必调用 Reservation.confirm()，否则事务提交后也会归还（下单失败但未回滚的情况）
+	 * @param quantities productId -> 购买数量
+	 */
+	public Reservation reserve(Map<Integer, Integer> quantities) {
+		List<String> args = pairs(quantities);
+		Long result;
+		try {
+			result = redisTemplate.execute(stockReserveScript, keys(), args.toArray());
+		} catch (RuntimeException e) {
+			//redis 不可用时退化为只靠mysql判断
+			log.warn("[StockReservation] 预占失败，跳过预占", e);
+			return new Reservation(null);
+		}
+		//-1：有商品不在redis中（刚上架还没对账），交给mysql判断
+		if (result == null || result < 0) {
+			return new Reservation(null);
+		}
+		if (result > 0) {
+			return new Reservation(result.intValue());
+		}
+
+		Reservation reservation = new Reservation(null);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					boolean kept = status == TransactionSynchronization.STATUS_COMMITTED && reservation.confirmed;
+					release(quantities, !kept, true);
+				}
+			});
+		}
+		return reservation;
+	}
+
+	/**
+	 * 只读检查，不预占：redis 中可售库存明显不足时返回该 productId，否则返回null（包括不在redis中的商品）
+	 */
+	public Integer checkSoldOut(Map<Integer, Integer> quantities) {
+		List<Object> productIds = new ArrayList<>();
+		for (Integer productId : quantities.keySet()) {
+			productIds.add(String.valueOf(productId));
+		}
+		List<Object> stocks;
+		try {
+			stocks = redisTemplate.opsForHash().multiGet(STOCK_REDIS_KEY, productIds);
+		} catch (RuntimeException e) {
+			log.warn("[StockReservation] 读取库存失败，跳过检查", e);
+			return null;
+		}
+		for (int i = 0; i < productIds.size(); i++) {
+			Integer productId = Integer.valueOf(productIds.get(i).toString());
+			Object stock = stocks.get(i);
+			if (stock != null && Long.parseLong(stock.toString()) < quantities.get(productId)) {
+				return productId;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 订单取消、超时关单回补mysql库存后调用，事务中会在提交后执行
+	 */
+	public void restore(Map<Integer, Integer> quantities) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					release(quantities, true, false);
+				}
+			});
+		} else {
+			release(quantities, true, false);
+		}
+	}
+
+	/**
+	 * 全量对账：从mysql按id游标读取商品库存，修正redis中的可售库存
+	 */
+	public void reconcile() {
+		long start = System.currentTimeMillis();
+		Map<Object, Object> reserved = redisTemplate.opsForHash().entries(RESERVED_REDIS_KEY);
+		Set<Object> mirrored = new HashSet<>(redisTemplate.opsForHash().keys(STOCK_REDIS_KEY));
+
+		long corrected = 0;
+		int onSale = 0;
+		Integer lastId = null;
+		while (true) {
+			List<Product> batch = productMapper.selectCatalogAfter(lastId, LOAD_BATCH_SIZE);
+			List<String> args = new ArrayList<>();
+			for (Product product : batch) {
+				if (!ProductStatusEnum.ON_SALE.getCode().equals(product.getStatus())) {
+					continue;
+				}
+				String productId = String.valueOf(product.getId());
+				Object current = reserved.get(productId);
+				boolean leaked = current != null && current.equals(lastReserved.get(productId));
+				args.add(productId);
+				args.add(String.valueOf(product.getStock() == null ? 0 : product.getStock()));
+				args.add(leaked ? current.toString() : "-1");
+				mirrored.remove(productId);
+				onSale++;
+			}
+			if (!args.isEmpty()) {
+				Long changed = redisTemplate.execute(stockReconcileScript, keys(), args.toArray());
+				corrected += changed == null ? 0 : changed;
+			}
+			if (batch.size() < LOAD_BATCH_SIZE) {
+				break;
+			}
+			lastId = batch.get(batch.size() - 1).getId();
+		}
+
+		//已下架、删除的商品
+		if (!mirrored.isEmpty()) {
+			redisTemplate.opsForHash().delete(STOCK_REDIS_KEY, mirrored.toArray());
+		}
+		lastReserved = reserved;
+		log.info("[StockReservation] 对账完成，在售商品 {}，修正 {}，移除 {}，耗时 {}ms",
+				onSale, corrected, mirrored.size(), System.currentTimeMillis() - start);
+	}
+
+	private void release(Map<Integer, Integer> quantities, boolean restock, boolean settle) {
+		List<String> args = new ArrayList<>();
+		args.add(restock ? "1" : "0");
+		args.add(settle ? "1" : "0");
+		args.addAll(pairs(quantities));
+		try {
+			redisTemplate.execute(stockReleaseScript, keys(), args.toArray());
+		} catch (RuntimeException e) {
+			//没归还的数量由对账任务修正
+			log.error("[StockReservation] 归还预占失败 {}", quantities, e);
+		}
+	}
+
+	private List<String> keys() {
+		return Arrays.asList(STOCK_REDIS_KEY, RESERVED_REDIS_KEY);
+	}
+
+	private List<String> pairs(Map<Integer, Integer> quantities) {
+		List<String> args = new ArrayList<>();
+		for (Map.Entry<Integer, Integer> entry : quantities.entrySet()) {
+			args.add(String.valueOf(entry.getKey()));
+			args.add(String.valueOf(entry.getValue()));
+		}
+		return args;
+	}
+
+	public static class Reservation {
+		private final Integer soldOutProductId;
+		private volatile boolean confirmed;
+
+		Reservation(Integer soldOutProductId) {
+			this.soldOutProductId = soldOutProductId;
+		}
+
+		/**
+		 * 不为null时表示该商品库存不足，预占失败
+		 */
+		public Integer getSoldOutProductId() {
+			return soldOutProductId;
+		}
+
+		/**
+		 * 下单成功，事务提交后保留本次扣减
+		 */
+		public void confirm() {
+			confirmed = true;
+		}
+	}
+}
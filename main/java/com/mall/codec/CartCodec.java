@@ -0,0 +1,17 @@
+package com.mall.codec;
+
+import com.mall.pojo.Cart;
+
+/**
+ * 购物车 hash value 的解码
+ * hash field 即 productId，value 只需保存数量和选中状态
+ * value 只由 scripts/cart_*.lua 写入（加购/修改/全选都在 redis 端原子完成），Java 端只读，因此没有 encode
+ */
+public interface CartCodec {
+
+	/**
+	 * @param productId 来自 hash field
+	 * @param value     hash value
+	 */
+	Cart decode(Integer productId, String value);
+}
@@ -0,0 +1,34 @@
+package com.mall.codec;
+
+import com.google.gson.Gson;
+import com.mall.pojo.Cart;
+import org.springframework.stereotype.Component;
+
+/**
+ * 紧凑编码的解码：value = quantity * 2 + (selected ? 1 : 0)，以十进制整数字符串存储
+ * 例：{"productId":26,"quantity":3,"productSelected":true}（52字节） -> "7"（1字节）
+ * redis 对整数字符串做 int 编码，小 hash(listpack/ziplist) 里每个 value 只占几个字节
+ *
+ * 兼容旧数据：以 '{' 开头的按 Gson JSON 解析；旧数据在下一次写入（加购/修改/全选）时被改写为新格式
+ * 格式固定在 scripts/cart_common.lua 的 encode/decode 中，写入只在 lua 端进行；修改格式时需同步修改这里的解码
+ */
+@Component
+public class PackedCartCodec implements CartCodec {
+
+	private final Gson gson = new Gson();
+
+	@Override
+	public Cart decode(Integer productId, String value) {
+		if (value.charAt(0) == '{') {
+			Cart cart = gson.fromJson(value, Cart.class);
+			cart.setProductId(productId);
+			if (cart.getProductSelected() == null) {
+				cart.setProductSelected(false);
+			}
+			return cart;
+		}
+
+		long packed = Long.parseLong(value);
+		return new Cart(productId, (int) (packed >> 1), (packed & 1) == 1);
+	}
+}
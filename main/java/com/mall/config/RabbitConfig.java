@@ -13,6 +13,18 @@ public class RabbitConfig {
 
     public static final String QUEUE_PAY_NOTIFY = "payNotify";
 
+    /** 异步下单队列 */
+    public static final String QUEUE_ORDER_CREATE = "orderCreate";
+
+    /** 异步下单失败后等待重试：消息按各自的 expiration 过期后经死信转回 orderCreate */
+    public static final String QUEUE_ORDER_CREATE_RETRY = "orderCreate.retry";
+
+    /** 异步下单重试次数用完的消息，人工排查后再处理 */
+    public static final String QUEUE_ORDER_CREATE_DEAD = "orderCreate.dead";
+
+    /** 异步下单的消费者数，即同时执行下单事务的最大线程数，按mysql能承受的写入量设置 */
+    private static final int ORDER_CREATE_CONSUMERS = 4;
+
     /** 队列元数据持久化（durable） */
     @Bean
     public Queue payNotifyQueue() {
@@ -28,4 +40,34 @@ public class RabbitConfig {
         f.setPrefetchCount(50);                        // 防止一次抓太多消息
         return f;
     }
+
+    @Bean
+    public Queue orderCreateQueue() {
+        return QueueBuilder.durable(QUEUE_ORDER_CREATE).build();
+    }
+
+    @Bean
+    public Queue orderCreateRetryQueue() {
+        return QueueBuilder.durable(QUEUE_ORDER_CREATE_RETRY)
+                .withArgument("x-dead-letter-exchange", "")
+                .withArgument("x-dead-letter-routing-key", QUEUE_ORDER_CREATE)
+                .build();
+    }
+
+    @Bean
+    public Queue orderCreateDeadQueue() {
+        return QueueBuilder.durable(QUEUE_ORDER_CREATE_DEAD).build();
+    }
+
+    /** 异步下单：固定数量的消费者，每个消费者一次只取一条，消息积压在队列里而不是内存里 */
+    @Bean
+    public SimpleRabbitListenerContainerFactory orderCreateContainerFactory(ConnectionFactory cf) {
+        SimpleRabbitListenerContainerFactory f = new SimpleRabbitListenerContainerFactory();
+        f.setConnectionFactory(cf);
+        f.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        f.setConcurrentConsumers(ORDER_CREATE_CONSUMERS);
+        f.setMaxConcurrentConsumers(ORDER_CREATE_CONSUMERS);
+        f.setPrefetchCount(1);
+        return f;
+    }
 }
@@ -0,0 +1,92 @@
+package com.mall.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * redis lua脚本
+ * RedisTemplate.execute 先用 EVALSHA(按sha1调用已缓存的脚本)，redis返回NOSCRIPT时才回退为 EVAL 上传脚本
+ * 脚本在redis内原子执行，读-改-写只需一次网络往返
+ */
+@Configuration
+public class RedisScriptConfig {
+
+    /** 购物车脚本的公共函数（编解码、汇总维护） */
+    private static final String CART_COMMON = "scripts/cart_common.lua";
+
+    @Bean
+    public RedisScript<Long> cartAddScript() throws IOException {
+        return cartScript("scripts/cart_add.lua", Long.class);
+    }
+
+    @Bean
+    public RedisScript<Long> cartUpdateScript() throws IOException {
+        return cartScript("scripts/cart_update.lua", Long.class);
+    }
+
+    @Bean
+    public RedisScript<Long> cartDeleteScript() throws IOException {
+        return cartScript("scripts/cart_delete.lua", Long.class);
+    }
+
+    @Bean
+    public RedisScript<Long> cartSelectAllScript() throws IOException {
+        return cartScript("scripts/cart_select_all.lua", Long.class);
+    }
+
+    @Bean
+    public RedisScript<List> cartSumScript() throws IOException {
+        return cartScript("scripts/cart_sum.lua", List.class);
+    }
+
+    @Bean
+    public RedisScript<Long> orderNoWorkerRenewScript() throws IOException {
+        return new DefaultRedisScript<>(read("scripts/order_no_worker_renew.lua"), Long.class);
+    }
+
+    @Bean
+    public RedisScript<Long> stockReserveScript() throws IOException {
+        return new DefaultRedisScript<>(read("scripts/stock_reserve.lua"), Long.class);
+    }
+
+    @Bean
+    public RedisScript<Long> stockReleaseScript() throws IOException {
+        return new DefaultRedisScript<>(read("scripts/stock_release.lua"), Long.class);
+    }
+
+    @Bean
+    public RedisScript<Long> stockReconcileScript() throws IOException {
+        return new DefaultRedisScript<>(read("scripts/stock_reconcile.lua"), Long.class);
+    }
+
+    @Bean
+    public RedisScript<Long> productSortSwapScript() throws IOException {
+        return new DefaultRedisScript<>(read("scripts/product_sort_swap.lua"), Long.class);
+    }
+
+    @Bean
+    public RedisScript<Long> lockReleaseScript() throws IOException {
+        return new DefaultRedisScript<>(read("scripts/lock_release.lua"), Long.class);
+    }
+
+    @Bean
+    public RedisScript<List> productCachePutScript() throws IOException {
+        return new DefaultRedisScript<>(read("scripts/product_cache_put.lua"), List.class);
+    }
+
+    private static <T> RedisScript<T> cartScript(String path, Class<T> resultType) throws IOException {
+        return new DefaultRedisScript<>(read(CART_COMMON) + read(path), resultType);
+    }
+
+    private static String read(String path) throws IOException {
+        return StreamUtils.copyToString(new ClassPathResource(path).getInputStream(), StandardCharsets.UTF_8);
+    }
+}
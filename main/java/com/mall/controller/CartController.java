@@ -28,25 +28,38 @@ public class CartController {
 		return cartService.list(user.getId());
 	}
 
+	//lite=true：只返回本次修改的商品和购物车汇总（CartChangeVo），供本地维护购物车的客户端使用
 	@PostMapping("/carts")
-	public ResponseVo<CartVo> add(@Valid @RequestBody CartAddForm cartAddForm,
-								  HttpSession session) {
+	public ResponseVo add(@Valid @RequestBody CartAddForm cartAddForm,
+						  @RequestParam(required = false, defaultValue = "false") Boolean lite,
+						  HttpSession session) {
 		User user = (User) session.getAttribute(MallConst.CURRENT_USER);
+		if (lite) {
+			return cartService.addLite(user.getId(), cartAddForm);
+		}
 		return cartService.add(user.getId(), cartAddForm);
 	}
 
 	@PutMapping("/carts/{productId}")
-	public ResponseVo<CartVo> update(@PathVariable Integer productId,
-									 @Valid @RequestBody CartUpdateForm form,
-									 HttpSession session) {
+	public ResponseVo update(@PathVariable Integer productId,
+							 @Valid @RequestBody CartUpdateForm form,
+							 @RequestParam(required = false, defaultValue = "false") Boolean lite,
+							 HttpSession session) {
 		User user = (User) session.getAttribute(MallConst.CURRENT_USER);
+		if (lite) {
+			return cartService.updateLite(user.getId(), productId, form);
+		}
 		return cartService.update(user.getId(), productId, form);
 	}
 
 	@DeleteMapping("/carts/{productId}")
-	public ResponseVo<CartVo> delete(@PathVariable Integer productId,
-									 HttpSession session) {
+	public ResponseVo delete(@PathVariable Integer productId,
+							 @RequestParam(required = false, defaultValue = "false") Boolean lite,
+							 HttpSession session) {
 		User user = (User) session.getAttribute(MallConst.CURRENT_USER);
+		if (lite) {
+			return cartService.deleteLite(user.getId(), productId);
+		}
 		return cartService.delete(user.getId(), productId);
 	}
 
@@ -6,6 +6,7 @@ import com.mall.vo.ResponseVo;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.List;
 
@@ -17,8 +18,12 @@ public class CategoryController {
 	private ICategoryService categoryService;
 
 	//类目树api
+	//支持条件请求：If-None-Match / If-Modified-Since 与当前类目版本一致时直接返回304，不构建也不序列化类目树
 	@GetMapping("/categories")
-	public ResponseVo<List<CategoryVo>> selectAll() {
+	public ResponseVo<List<CategoryVo>> selectAll(WebRequest request) {
+		if (request.checkNotModified("W/\"c" + categoryService.version() + "\"", categoryService.lastModified())) {
+			return null;
+		}
 		return categoryService.selectAll();
 	}
 }
@@ -2,12 +2,16 @@ package com.mall.controller;
 
 import com.github.pagehelper.PageInfo;
 import com.mall.consts.MallConst;
+import com.mall.enums.PageCountModeEnum;
 import com.mall.form.OrderCreateForm;
 import com.mall.pojo.User;
 import com.mall.service.IOrderService;
+import com.mall.service.OrderTicketService;
+import com.mall.vo.OrderTicketVo;
 import com.mall.vo.OrderVo;
 import com.mall.vo.ResponseVo;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpSession;
@@ -20,19 +24,38 @@ public class OrderController {
 	@Autowired
 	private IOrderService orderService;
 
+	@Autowired
+	private OrderTicketService orderTicketService;
+
+	/** 按部署开关：true 时只排队并返回凭证(OrderTicketVo)，否则同步下单返回 OrderVo */
+	@Value("${mall.order.async-create:false}")
+	private boolean asyncCreate;
+
 	@PostMapping("/orders")
-	public ResponseVo<OrderVo> create(@Valid @RequestBody OrderCreateForm form,
-									  HttpSession session) {
+	public ResponseVo create(@Valid @RequestBody OrderCreateForm form,
+							 HttpSession session) {
 		User user = (User) session.getAttribute(MallConst.CURRENT_USER);
+		if (asyncCreate) {
+			return orderTicketService.submit(user.getId(), form.getShippingId());
+		}
 		return orderService.create(user.getId(), form.getShippingId());
 	}
 
+	//异步下单结果轮询，下单成功后用 /orders/{orderNo} 查看订单
+	@GetMapping("/orders/tickets/{orderNo}")
+	public ResponseVo<OrderTicketVo> ticket(@PathVariable Long orderNo,
+											HttpSession session) {
+		User user = (User) session.getAttribute(MallConst.CURRENT_USER);
+		return orderTicketService.status(user.getId(), orderNo);
+	}
+
 	@GetMapping("/orders")
 	public ResponseVo<PageInfo> list(@RequestParam Integer pageNum,
 									 @RequestParam Integer pageSize,
+									 @RequestParam(required = false, defaultValue = "EXACT") PageCountModeEnum countMode,
 									 HttpSession session) {
 		User user = (User) session.getAttribute(MallConst.CURRENT_USER);
-		return orderService.list(user.getId(), pageNum, pageSize);
+		return orderService.list(user.getId(), pageNum, pageSize, countMode);
 	}
 
 	@GetMapping("/orders/{orderNo}")
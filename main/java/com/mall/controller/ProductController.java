@@ -1,14 +1,24 @@
 package com.mall.controller;
 
 import com.github.pagehelper.PageInfo;
+import com.mall.enums.PageCountModeEnum;
+import com.mall.enums.ProductSortEnum;
 import com.mall.service.IProductService;
+import com.mall.vo.ProductCursorVo;
 import com.mall.vo.ProductDetailVo;
+import com.mall.vo.ProductFilterVo;
+import com.mall.vo.ProductVersionVo;
 import com.mall.vo.ResponseVo;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 
 @RestController
@@ -20,16 +30,65 @@ public class ProductController {
 	//商品列表api
 	// required = false：非必传参数
 	// 若未给categoryId赋值，默认为null
+	// countMode：总数计算方式，见 PageCountModeEnum，默认每次 COUNT
+	// sort：排序方式，见 ProductSortEnum，排序列表总是返回精确总数，忽略 countMode
 	@GetMapping("/products")
 	public ResponseVo<PageInfo> list(@RequestParam(required = false) Integer categoryId,
 									 @RequestParam(required = false, defaultValue = "1") Integer pageNum,
-									 @RequestParam(required = false, defaultValue = "10") Integer pageSize) {
-		return productService.list(categoryId, pageNum, pageSize);
+									 @RequestParam(required = false, defaultValue = "10") Integer pageSize,
+									 @RequestParam(required = false, defaultValue = "EXACT") PageCountModeEnum countMode,
+									 @RequestParam(required = false, defaultValue = "DEFAULT") ProductSortEnum sort) {
+		return productService.list(categoryId, pageNum, pageSize, countMode, sort);
+	}
+
+	//商品列表api（游标分页），翻页深度不影响耗时，第一页不传cursor
+	@GetMapping("/products/scroll")
+	public ResponseVo<ProductCursorVo> scroll(@RequestParam(required = false) Integer categoryId,
+											  @RequestParam(required = false) String cursor,
+											  @RequestParam(required = false, defaultValue = "10") Integer pageSize) {
+		return productService.scroll(categoryId, cursor, pageSize);
+	}
+
+	//商品搜索api，按 name、subtitle 相关度排序，可按类目过滤
+	@GetMapping("/products/search")
+	public ResponseVo<PageInfo> search(@RequestParam String keyword,
+									   @RequestParam(required = false) Integer categoryId,
+									   @RequestParam(required = false, defaultValue = "1") Integer pageNum,
+									   @RequestParam(required = false, defaultValue = "10") Integer pageSize) {
+		return productService.search(keyword, categoryId, pageNum, pageSize);
+	}
+
+	//搜索框联想api，每次输入都会调用，只查内存
+	@GetMapping("/products/suggest")
+	public ResponseVo<List<String>> suggest(@RequestParam String prefix,
+											@RequestParam(required = false, defaultValue = "10") Integer limit) {
+		return productService.suggest(prefix, limit);
+	}
+
+	//商品多条件筛选api：categoryIds、priceBuckets 可多选（如 categoryIds=100001,100002），返回分面计数
+	@GetMapping("/products/filter")
+	public ResponseVo<ProductFilterVo> filter(@RequestParam(required = false) Set<Integer> categoryIds,
+											  @RequestParam(required = false) Set<Integer> priceBuckets,
+											  @RequestParam(required = false) Boolean inStock,
+											  @RequestParam(required = false, defaultValue = "1") Integer pageNum,
+											  @RequestParam(required = false, defaultValue = "10") Integer pageSize) {
+		return productService.filter(categoryIds, priceBuckets, inStock, pageNum, pageSize);
+	}
+
+	//批量商品详情api（如 productIds=26,27,28），每个商品单独返回结果，最多50个
+	@GetMapping("/products/batch")
+	public ResponseVo<Map<Integer, ResponseVo<ProductDetailVo>>> detailBatch(@RequestParam List<Integer> productIds) {
+		return productService.detailBatch(productIds);
 	}
 
 	//商品详情api
+	//支持条件请求：先只读商品的 update_time 和库存判断，未变化时直接返回304，不构建也不序列化详情
 	@GetMapping("/products/{productId}")
-	public ResponseVo<ProductDetailVo> detail(@PathVariable Integer productId) {
+	public ResponseVo<ProductDetailVo> detail(@PathVariable Integer productId, WebRequest request) {
+		ProductVersionVo version = productService.detailVersion(productId);
+		if (version != null && request.checkNotModified(version.getETag(), version.getLastModified())) {
+			return null;
+		}
 		return productService.detail(productId);
 	}
 }
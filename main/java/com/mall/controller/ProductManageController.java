@@ -0,0 +1,60 @@
+package com.mall.controller;
+
+import com.mall.consts.MallConst;
+import com.mall.enums.ResponseEnum;
+import com.mall.enums.RoleEnum;
+import com.mall.form.ProductForm;
+import com.mall.pojo.User;
+import com.mall.service.IProductService;
+import com.mall.vo.ResponseVo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpSession;
+import javax.validation.Valid;
+
+/**
+ * 商品管理（管理员）：新建、修改、上下架
+ * 写库后由 IProductService 统一清商品缓存、列表缓存并同步排序索引
+ */
+@RestController
+public class ProductManageController {
+
+	@Autowired
+	private IProductService productService;
+
+	@PostMapping("/manage/products")
+	public ResponseVo add(@Valid @RequestBody ProductForm form,
+						  HttpSession session) {
+		if (!isAdmin(session)) {
+			return ResponseVo.error(ResponseEnum.NEED_ADMIN);
+		}
+		return productService.add(form);
+	}
+
+	@PutMapping("/manage/products/{productId}")
+	public ResponseVo update(@PathVariable Integer productId,
+							 @Valid @RequestBody ProductForm form,
+							 HttpSession session) {
+		if (!isAdmin(session)) {
+			return ResponseVo.error(ResponseEnum.NEED_ADMIN);
+		}
+		return productService.update(productId, form);
+	}
+
+	//status：1-在售 2-下架 3-删除
+	@PutMapping("/manage/products/{productId}/status")
+	public ResponseVo updateStatus(@PathVariable Integer productId,
+								   @RequestParam Integer status,
+								   HttpSession session) {
+		if (!isAdmin(session)) {
+			return ResponseVo.error(ResponseEnum.NEED_ADMIN);
+		}
+		return productService.updateStatus(productId, status);
+	}
+
+	private boolean isAdmin(HttpSession session) {
+		User user = (User) session.getAttribute(MallConst.CURRENT_USER);
+		return RoleEnum.ADMIN.getCode().equals(user.getRole());
+	}
+}
@@ -1,6 +1,7 @@
 package com.mall.controller;
 
 import com.mall.consts.MallConst;
+import com.mall.enums.PageCountModeEnum;
 import com.mall.form.ShippingForm;
 import com.mall.pojo.User;
 import com.mall.service.IShippingService;
@@ -46,8 +47,9 @@ public class ShippingController {
 	@GetMapping("/shippings")
 	public ResponseVo list(@RequestParam(required = false, defaultValue = "1") Integer pageNum,
 						   @RequestParam(required = false, defaultValue = "10") Integer pageSize,
+						   @RequestParam(required = false, defaultValue = "EXACT") PageCountModeEnum countMode,
 						   HttpSession session) {
 		User user = (User) session.getAttribute(MallConst.CURRENT_USER);
-		return shippingService.list(user.getId(), pageNum, pageSize);
+		return shippingService.list(user.getId(), pageNum, pageSize, countMode);
 	}
 }
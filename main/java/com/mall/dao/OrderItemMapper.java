@@ -21,5 +21,9 @@ public interface OrderItemMapper {
 
     int batchInsert(@Param("orderItemList") List<OrderItem> orderItemList);
 
+    /** 只查展示和回补库存所需的列，不含 id、user_id、update_time */
     List<OrderItem> selectByOrderNoSet(@Param("orderNoSet") Set orderNoSet);
+
+    /** 各商品已支付销量，只填充 productId、quantity */
+    List<OrderItem> selectProductSales();
 }
\ No newline at end of file
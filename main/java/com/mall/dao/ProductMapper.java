@@ -19,10 +19,56 @@ public interface ProductMapper {
 
     int updateByPrimaryKey(Product record);
 
+    /** 列表用，只查 ProductVo 需要的列（不含 detail、sub_images、stock） */
     List<Product> selectByCategoryIdSet(@Param("categoryIdSet") Set<Integer> categoryIdSet);
 
+    /**
+     * 游标分页：按 id 升序取 id > lastId 的前 limit 条，lastId 为null时从头开始
+     * 与 selectByCategoryIdSet 一样只查列表列
+     * 沿 (status, id) 顺序扫描并过滤类目，类目集合为空(不限类目)或覆盖大部分商品时使用；
+     * 只占少量商品的类目要扫过很多别的商品，应使用 selectByCategoryIdSetMergedAfter
+     */
+    List<Product> selectByCategoryIdSetAfter(@Param("categoryIdSet") Set<Integer> categoryIdSet,
+                                             @Param("lastId") Integer lastId,
+                                             @Param("limit") Integer limit);
+
+    /**
+     * 同 selectByCategoryIdSetAfter，按类目分别取前 limit 条再合并，不随页数和子树大小变慢；categoryIdSet 不能为空
+     */
+    List<Product> selectByCategoryIdSetMergedAfter(@Param("categoryIdSet") Set<Integer> categoryIdSet,
+                                                   @Param("lastId") Integer lastId,
+                                                   @Param("limit") Integer limit);
+
+    /**
+     * 按 id 游标分批读取未删除的商品（含库存，不含 detail、sub_images），用于构建内存中的商品快照
+     */
+    List<Product> selectCatalogAfter(@Param("lastId") Integer lastId, @Param("limit") Integer limit);
+
+    /** 下单用，只查生成订单明细所需的列；不加锁，库存以 deductStock 的条件更新为准 */
     List<Product> selectByProductIdSet(@Param("productIdSet") Set<Integer> productIdSet);
 
+    /** 批量查询商品（不加锁），用于购物车等只读展示场景 */
+    List<Product> selectByProductIdSetWithoutLock(@Param("productIdSet") Set<Integer> productIdSet);
+
+    /** 只查库存和 update_time，用于单独缓存库存 */
+    List<Product> selectStockByProductIdSet(@Param("productIdSet") Set<Integer> productIdSet);
+
+    /**
+     * 条件扣减库存：库存不足时不更新；热点商品（已分槽）不更新，应走 ProductStockSlotMapper
+     * @return 1 扣减成功；0 库存不足（或商品不存在、是热点商品）
+     */
+    int deductStock(@Param("productId") Integer productId, @Param("quantity") Integer quantity);
+
+    /** 直接设置库存，用于热点商品回写各槽位库存之和 */
+    int updateStock(@Param("productId") Integer productId, @Param("stock") Integer stock);
+
+    /**
+     * 库存与当前值不同时才设置库存并更新 update_time，相同时不写，不改变商品详情的 Last-Modified/ETag
+     * @return 1 已更新；0 库存未变化（或商品不存在）
+     */
+    int updateStockIfChanged(@Param("productId") Integer productId, @Param("stock") Integer stock);
+
+    /** 回补库存，热点商品（已分槽）不更新，返回0 */
     int addStock(@Param("productId") Integer productId, @Param("quantity") Integer quantity);
 
 }
\ No newline at end of file
@@ -0,0 +1,33 @@
+package com.mall.dao;
+
+import com.mall.pojo.ProductStockSlot;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+public interface ProductStockSlotMapper {
+
+    int batchInsert(@Param("slotList") List<ProductStockSlot> slotList);
+
+    /** 各热点商品的汇总：slot 为槽位数，stock 为库存之和，不含 update_time */
+    List<ProductStockSlot> selectSummary();
+
+    /** 各槽位库存，不加锁，按槽位号升序 */
+    List<ProductStockSlot> selectByProductId(@Param("productId") Integer productId);
+
+    /** 库存大于0的槽位，按槽位号升序加锁 */
+    List<ProductStockSlot> selectAvailableForUpdate(@Param("productId") Integer productId);
+
+    /**
+     * 条件扣减单个槽位
+     * @return 1 扣减成功；0 该槽位库存不足
+     */
+    int deduct(@Param("productId") Integer productId, @Param("slot") Integer slot, @Param("quantity") Integer quantity);
+
+    int add(@Param("productId") Integer productId, @Param("slot") Integer slot, @Param("quantity") Integer quantity);
+
+    /** 各槽位库存之和，加锁，用于合并回 mall_product */
+    Integer sumForUpdate(@Param("productId") Integer productId);
+
+    int deleteByProductId(@Param("productId") Integer productId);
+}
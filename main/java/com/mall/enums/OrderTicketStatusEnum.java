@@ -0,0 +1,26 @@
+package com.mall.enums;
+
+import lombok.Getter;
+
+/**
+ * 异步下单凭证状态:0-排队中，1-下单成功，2-下单失败
+ */
+@Getter
+public enum OrderTicketStatusEnum {
+
+	QUEUED(0, "排队中"),
+
+	SUCCESS(1, "下单成功"),
+
+	FAILED(2, "下单失败"),
+	;
+
+	Integer code;
+
+	String desc;
+
+	OrderTicketStatusEnum(Integer code, String desc) {
+		this.code = code;
+		this.desc = desc;
+	}
+}
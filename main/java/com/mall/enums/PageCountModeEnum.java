@@ -0,0 +1,22 @@
+package com.mall.enums;
+
+/**
+ * 分页接口的总数计算方式，返回结构都是 PageInfo
+ * 不精确计数时 total = -1（CACHED 除外），客户端以 hasNextPage 判断是否还有下一页
+ */
+public enum PageCountModeEnum {
+
+	/** 每次请求都执行 COUNT(*)，默认 */
+	EXACT,
+
+	/** 不计数，取满一页即认为可能还有下一页 */
+	NONE,
+
+	/** 返回缓存的总数（可能略有偏差），过期后异步刷新 */
+	CACHED,
+
+	/** 不计数，多查一行判断是否有下一页 */
+	HAS_NEXT,
+
+	;
+}
@@ -0,0 +1,22 @@
+package com.mall.enums;
+
+/**
+ * 商品列表排序方式
+ */
+public enum ProductSortEnum {
+
+	/** 不排序，沿用原有的分页查询 */
+	DEFAULT,
+
+	PRICE_ASC,
+
+	PRICE_DESC,
+
+	/** 按上架时间(create_time)倒序 */
+	NEWEST,
+
+	/** 按已支付销量倒序 */
+	SALES,
+
+	;
+}
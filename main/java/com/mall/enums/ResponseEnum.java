@@ -40,6 +40,10 @@ public enum ResponseEnum {
 
 	ORDER_STATUS_ERROR(20, "订单状态有误"),
 
+	ORDER_IN_QUEUE(21, "已有订单正在排队，请稍后再试"),
+
+	NEED_ADMIN(22, "需要管理员权限"),
+
 	;
 
 	Integer code;
@@ -0,0 +1,36 @@
+package com.mall.form;
+
+import lombok.Data;
+
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+import java.math.BigDecimal;
+
+
+@Data
+public class ProductForm {
+
+	@NotNull
+	private Integer categoryId;
+
+	@NotBlank
+	private String name;
+
+	private String subtitle;
+
+	private String mainImage;
+
+	private String subImages;
+
+	private String detail;
+
+	@NotNull
+	@DecimalMin("0")
+	private BigDecimal price;
+
+	/** 只在新建时使用，之后的库存由下单、取消和分槽维护 */
+	@Min(0)
+	private Integer stock;
+}
@@ -0,0 +1,79 @@
+package com.mall.listener;
+
+import com.google.gson.Gson;
+import com.mall.pojo.OrderCreateMessage;
+import com.mall.service.OrderTicketService;
+import com.rabbitmq.client.Channel;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.AmqpTemplate;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.mall.config.RabbitConfig.*;
+
+/**
+ * 异步下单消费者
+ * 处理失败（redis 等基础设施异常）时不直接重回队列，而是带上重试次数转入 orderCreate.retry，
+ * 按 RETRY_BASE_DELAY_MILLIS * 2^n 退避后再回到 orderCreate；超过 MAX_RETRIES 次转入 orderCreate.dead
+ * rabbitmq 只在消息到达队头时检查过期，退避时间是下限，前面有等待更久的消息时会更晚回到 orderCreate
+ */
+@Component
+@Slf4j
+public class OrderCreateListener {
+
+	private static final String RETRY_HEADER = "x-order-create-retries";
+
+	private static final int MAX_RETRIES = 5;
+
+	private static final long RETRY_BASE_DELAY_MILLIS = 1000;
+
+	@Autowired
+	private OrderTicketService orderTicketService;
+
+	@Autowired
+	private AmqpTemplate amqpTemplate;
+
+	private final Gson gson = new Gson();
+
+	@RabbitListener(queues = QUEUE_ORDER_CREATE, containerFactory = "orderCreateContainerFactory")
+	public void process(Message message, Channel channel) throws Exception {
+		long tag = message.getMessageProperties().getDeliveryTag();
+		String body = new String(message.getBody(), StandardCharsets.UTF_8);
+
+		try {
+			// 下单本身的失败已记录在凭证里，这里抛出的只会是 redis 等基础设施异常
+			orderTicketService.process(gson.fromJson(body, OrderCreateMessage.class));
+			channel.basicAck(tag, false);
+
+		} catch (Exception e) {
+			// process() 幂等，重投安全
+			retryLater(message, body, e);
+			// 已转入重试/死信队列；转发本身失败时抛出异常，消息未 ack，连接恢复后重投
+			channel.basicAck(tag, false);
+		}
+	}
+
+	private void retryLater(Message message, String body, Exception e) {
+		MessageProperties properties = message.getMessageProperties();
+		Object header = properties.getHeaders().get(RETRY_HEADER);
+		int retries = header instanceof Number ? ((Number) header).intValue() : 0;
+
+		if (retries >= MAX_RETRIES) {
+			log.error("[orderCreate] 重试 {} 次仍失败，转入 {} {}", retries, QUEUE_ORDER_CREATE_DEAD, body, e);
+			properties.setExpiration(null);
+			amqpTemplate.send("", QUEUE_ORDER_CREATE_DEAD, message);
+			return;
+		}
+
+		long delay = RETRY_BASE_DELAY_MILLIS << retries;
+		log.error("[orderCreate] 处理失败，{}ms 后第 {} 次重试 {}", delay, retries + 1, body, e);
+		properties.setHeader(RETRY_HEADER, retries + 1);
+		properties.setExpiration(String.valueOf(delay));
+		amqpTemplate.send("", QUEUE_ORDER_CREATE_RETRY, message);
+	}
+}
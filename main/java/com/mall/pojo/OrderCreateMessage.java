@@ -0,0 +1,28 @@
+package com.mall.pojo;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 异步下单消息，orderNo 在入队前生成
+ * cartList 是提交时选中的购物车行，消费时按它下单，排队期间修改购物车不影响这一单
+ */
+@Data
+public class OrderCreateMessage {
+
+	private Integer uid;
+
+	private Integer shippingId;
+
+	private Long orderNo;
+
+	private List<Cart> cartList;
+
+	public OrderCreateMessage(Integer uid, Integer shippingId, Long orderNo, List<Cart> cartList) {
+		this.uid = uid;
+		this.shippingId = shippingId;
+		this.orderNo = orderNo;
+		this.cartList = cartList;
+	}
+}
@@ -0,0 +1,26 @@
+package com.mall.pojo;
+
+import lombok.Data;
+
+import java.util.Date;
+
+@Data
+public class ProductStockSlot {
+
+	private Integer productId;
+
+	private Integer slot;
+
+	private Integer stock;
+
+	private Date updateTime;
+
+	public ProductStockSlot() {
+	}
+
+	public ProductStockSlot(Integer productId, Integer slot, Integer stock) {
+		this.productId = productId;
+		this.slot = slot;
+		this.stock = stock;
+	}
+}
@@ -0,0 +1,81 @@
+package com.mall.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 商品名分词：英文/数字按连续字母数字切词并转小写，中日韩文字按二元切分(bigram)
+ * 例："Apple iPhone 11 手机壳" -> apple, iphone, 11, 手机, 机壳
+ *
+ * 建索引时中文同时产出单字，方便只输入一个字时也能搜到；查询时连续两个字以上只用二元词，减少候选集
+ */
+public final class CjkTokenizer {
+
+	private CjkTokenizer() {
+	}
+
+	public static List<String> tokenizeForIndex(String text) {
+		return tokenize(text, true);
+	}
+
+	public static List<String> tokenizeForQuery(String text) {
+		return tokenize(text, false);
+	}
+
+	private static List<String> tokenize(String text, boolean withUnigrams) {
+		List<String> tokens = new ArrayList<>();
+		if (text == null || text.isEmpty()) {
+			return tokens;
+		}
+		String normalized = text.toLowerCase(Locale.ROOT);
+		StringBuilder word = new StringBuilder();
+		List<String> cjkRun = new ArrayList<>();
+		int i = 0;
+		while (i < normalized.length()) {
+			int codePoint = normalized.codePointAt(i);
+			i += Character.charCount(codePoint);
+			if (isCjk(codePoint)) {
+				flushWord(word, tokens);
+				cjkRun.add(new String(Character.toChars(codePoint)));
+			} else if (Character.isLetterOrDigit(codePoint)) {
+				flushCjk(cjkRun, tokens, withUnigrams);
+				word.appendCodePoint(codePoint);
+			} else {
+				flushWord(word, tokens);
+				flushCjk(cjkRun, tokens, withUnigrams);
+			}
+		}
+		flushWord(word, tokens);
+		flushCjk(cjkRun, tokens, withUnigrams);
+		return tokens;
+	}
+
+	private static void flushWord(StringBuilder word, List<String> tokens) {
+		if (word.length() > 0) {
+			tokens.add(word.toString());
+			word.setLength(0);
+		}
+	}
+
+	private static void flushCjk(List<String> run, List<String> tokens, boolean withUnigrams) {
+		if (run.isEmpty()) {
+			return;
+		}
+		if (run.size() == 1 || withUnigrams) {
+			tokens.addAll(run);
+		}
+		for (int i = 0; i + 1 < run.size(); i++) {
+			tokens.add(run.get(i) + run.get(i + 1));
+		}
+		run.clear();
+	}
+
+	private static boolean isCjk(int codePoint) {
+		Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+		return script == Character.UnicodeScript.HAN
+				|| script == Character.UnicodeScript.HIRAGANA
+				|| script == Character.UnicodeScript.KATAKANA
+				|| script == Character.UnicodeScript.HANGUL;
+	}
+}
@@ -0,0 +1,309 @@
+package com.mall.search;
+
+import com.mall.dao.ProductMapper;
+import com.mall.enums.ProductStatusEnum;
+import com.mall.pojo.Product;
+import com.mall.vo.ProductVo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.function.IntConsumer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 商品多条件筛选：内存中的列式商品快照 + 位图索引
+ *
+ * 每个商品在快照中有一个序号(按id升序)，各列按序号存成数组；
+ * 每个类目、状态、价格区间、是否有货各一个压缩位图(RoaringBitmap)，筛选即位图的 AND/OR，结果天然按id有序
+ * 稀疏的类目位图只占数组容器的大小，几千个类目、百万商品时内存与商品数成正比，而不是类目数 × 商品数
+ * 分面计数按"排除自身维度"计算：例如价格区间的计数只受类目和库存条件影响，方便前端展示切换后的数量
+ *
+ * 快照定时从mysql全量重建后整体替换，查询不加锁
+ * 库存只在重建时读取，"是否有货"的筛选与计数最多滞后 REBUILD_INTERVAL_MINUTES，下单仍以实际库存为准
+ */
+@Slf4j
+@Component
+public class ProductFacetIndex {
+
+	private static final int LOAD_BATCH_SIZE = 1000;
+
+	private static final long REBUILD_INTERVAL_MINUTES = 5;
+
+	/** 价格区间下界，区间 i 为 [PRICE_BOUNDS[i], PRICE_BOUNDS[i+1])，最后一个区间无上界 */
+	private static final BigDecimal[] PRICE_BOUNDS = {
+			BigDecimal.ZERO,
+			new BigDecimal("50"),
+			new BigDecimal("100"),
+			new BigDecimal("500"),
+			new BigDecimal("1000"),
+			new BigDecimal("5000"),
+	};
+
+	@Autowired
+	private ProductMapper productMapper;
+
+	private volatile Snapshot snapshot = new Snapshot(Collections.emptyList());
+
+	private final ScheduledExecutorService rebuilder =
+			Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "product-facet-rebuild");
+				t.setDaemon(true);
+				return t;
+			});
+
+	@PostConstruct
+	public void init() {
+		rebuilder.scheduleWithFixedDelay(() -> {
+			try {
+				rebuild();
+			} catch (RuntimeException e) {
+				log.error("[ProductFacetIndex] 重建失败，继续使用旧快照", e);
+			}
+		}, 0, REBUILD_INTERVAL_MINUTES, TimeUnit.MINUTES);
+	}
+
+	public void rebuild() {
+		long start = System.currentTimeMillis();
+		List<Product> products = new ArrayList<>();
+		Integer lastId = null;
+		while (true) {
+			List<Product> batch = productMapper.selectCatalogAfter(lastId, LOAD_BATCH_SIZE);
+			products.addAll(batch);
+			if (batch.size() < LOAD_BATCH_SIZE) {
+				break;
+			}
+			lastId = batch.get(batch.size() - 1).getId();
+		}
+		snapshot = new Snapshot(products);
+		log.info("[ProductFacetIndex] 重建完成，商品数 {}，耗时 {}ms", products.size(), System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * 价格区间的展示名，下标即筛选参数 priceBuckets 的取值
+	 */
+	public static String priceBucketLabel(int bucket) {
+		return bucket + 1 < PRICE_BOUNDS.length
+				? PRICE_BOUNDS[bucket].toPlainString() + "-" + PRICE_BOUNDS[bucket + 1].toPlainString()
+				: PRICE_BOUNDS[bucket].toPlainString() + "+";
+	}
+
+	/**
+	 * 只返回在售商品
+	 * @param categoryIdSets 每个元素是一个已展开子类目的类目集合，集合之间为 OR；为空不按类目过滤
+	 * @param priceBuckets 价格区间下标，之间为 OR；为空不过滤
+	 * @param inStock true 只要有货，false 只要无货，null 不过滤
+	 */
+	public FilterResult filter(List<Set<Integer>> categoryIdSets, Set<Integer> priceBuckets, Boolean inStock,
+							   int offset, int limit) {
+		Snapshot current = snapshot;
+		RoaringBitmap onSale = current.statusBits.getOrDefault(ProductStatusEnum.ON_SALE.getCode(), new RoaringBitmap());
+
+		RoaringBitmap categoryFilter = null;
+		if (!categoryIdSets.isEmpty()) {
+			List<RoaringBitmap> selected = new ArrayList<>();
+			for (Set<Integer> categoryIdSet : categoryIdSets) {
+				for (Integer categoryId : categoryIdSet) {
+					RoaringBitmap bits = current.categoryBits.get(categoryId);
+					if (bits != null) {
+						selected.add(bits);
+					}
+				}
+			}
+			categoryFilter = FastAggregation.or(selected.iterator());
+		}
+
+		RoaringBitmap priceFilter = null;
+		if (!priceBuckets.isEmpty()) {
+			List<RoaringBitmap> selected = new ArrayList<>();
+			for (Integer bucket : priceBuckets) {
+				if (bucket != null && bucket >= 0 && bucket < current.priceBits.length) {
+					selected.add(current.priceBits[bucket]);
+				}
+			}
+			priceFilter = FastAggregation.or(selected.iterator());
+		}
+
+		RoaringBitmap stockFilter = null;
+		if (inStock != null) {
+			stockFilter = inStock ? current.inStockBits : current.outOfStockBits;
+		}
+
+		RoaringBitmap matched = and(onSale, categoryFilter, priceFilter, stockFilter);
+
+		FilterResult result = new FilterResult();
+		result.total = matched.getLongCardinality();
+		if (offset < result.total) {
+			//select 直接定位到第 offset 个序号，不逐个跳过
+			PeekableIntIterator it = matched.getIntIterator();
+			it.advanceIfNeeded(matched.select(offset));
+			while (it.hasNext() && result.list.size() < limit) {
+				result.list.add(current.productVo(it.next()));
+			}
+		}
+
+		//分面计数：排除自身维度的条件
+		//类目：只遍历一次满足其它条件的商品，按各行的类目序号计数，与类目数量无关
+		RoaringBitmap withoutCategory = and(onSale, null, priceFilter, stockFilter);
+		int[] categoryCounts = new int[current.categoryIdByOrdinal.length];
+		withoutCategory.forEach((IntConsumer) i -> categoryCounts[current.categoryOrdinals[i]]++);
+		for (int ordinal = 0; ordinal < categoryCounts.length; ordinal++) {
+			if (categoryCounts[ordinal] > 0) {
+				result.categoryCounts.put(current.categoryIdByOrdinal[ordinal], categoryCounts[ordinal]);
+			}
+		}
+		RoaringBitmap withoutPrice = and(onSale, categoryFilter, null, stockFilter);
+		for (int bucket = 0; bucket < current.priceBits.length; bucket++) {
+			result.priceBucketCounts.put(priceBucketLabel(bucket),
+					RoaringBitmap.andCardinality(withoutPrice, current.priceBits[bucket]));
+		}
+		RoaringBitmap withoutStock = and(onSale, categoryFilter, priceFilter, null);
+		result.inStockCount = RoaringBitmap.andCardinality(withoutStock, current.inStockBits);
+		result.outOfStockCount = withoutStock.getLongCardinality() - result.inStockCount;
+		return result;
+	}
+
+	private RoaringBitmap and(RoaringBitmap base, RoaringBitmap... filters) {
+		RoaringBitmap result = base.clone();
+		for (RoaringBitmap filter : filters) {
+			if (filter != null) {
+				result.and(filter);
+			}
+		}
+		return result;
+	}
+
+	private static int priceBucket(BigDecimal price) {
+		int bucket = 0;
+		while (bucket + 1 < PRICE_BOUNDS.length && price.compareTo(PRICE_BOUNDS[bucket + 1]) >= 0) {
+			bucket++;
+		}
+		return bucket;
+	}
+
+	public static class FilterResult {
+		private long total;
+		private final List<ProductVo> list = new ArrayList<>();
+		private final Map<Integer, Integer> categoryCounts = new HashMap<>();
+		private final Map<String, Integer> priceBucketCounts = new LinkedHashMap<>();
+		private long inStockCount;
+		private long outOfStockCount;
+
+		public long getTotal() {
+			return total;
+		}
+
+		public List<ProductVo> getList() {
+			return list;
+		}
+
+		public Map<Integer, Integer> getCategoryCounts() {
+			return categoryCounts;
+		}
+
+		public Map<String, Integer> getPriceBucketCounts() {
+			return priceBucketCounts;
+		}
+
+		public long getInStockCount() {
+			return inStockCount;
+		}
+
+		public long getOutOfStockCount() {
+			return outOfStockCount;
+		}
+	}
+
+	/**
+	 * 列式快照，构建后不再修改
+	 */
+	private static class Snapshot {
+		final int size;
+		final int[] productIds;
+		final Integer[] categoryIds;
+		final String[] names;
+		final String[] subtitles;
+		final String[] mainImages;
+		final BigDecimal[] prices;
+		final Integer[] statuses;
+
+		/** 每行的类目序号，类目分面计数时按序号计数 */
+		final int[] categoryOrdinals;
+		final Integer[] categoryIdByOrdinal;
+
+		final Map<Integer, RoaringBitmap> categoryBits = new HashMap<>();
+		final Map<Integer, RoaringBitmap> statusBits = new HashMap<>();
+		final RoaringBitmap[] priceBits = new RoaringBitmap[PRICE_BOUNDS.length];
+		final RoaringBitmap inStockBits = new RoaringBitmap();
+		final RoaringBitmap outOfStockBits;
+
+		Snapshot(List<Product> products) {
+			size = products.size();
+			productIds = new int[size];
+			categoryIds = new Integer[size];
+			names = new String[size];
+			subtitles = new String[size];
+			mainImages = new String[size];
+			prices = new BigDecimal[size];
+			statuses = new Integer[size];
+			categoryOrdinals = new int[size];
+			for (int bucket = 0; bucket < priceBits.length; bucket++) {
+				priceBits[bucket] = new RoaringBitmap();
+			}
+
+			Map<Integer, Integer> ordinals = new LinkedHashMap<>();
+			for (int i = 0; i < size; i++) {
+				Product product = products.get(i);
+				productIds[i] = product.getId();
+				categoryIds[i] = product.getCategoryId();
+				names[i] = product.getName();
+				subtitles[i] = product.getSubtitle();
+				mainImages[i] = product.getMainImage();
+				prices[i] = product.getPrice();
+				statuses[i] = product.getStatus();
+				categoryOrdinals[i] = ordinals.computeIfAbsent(product.getCategoryId(), k -> ordinals.size());
+
+				//按序号升序追加，RoaringBitmap.add 走追加的快路径
+				categoryBits.computeIfAbsent(product.getCategoryId(), k -> new RoaringBitmap()).add(i);
+				statusBits.computeIfAbsent(product.getStatus(), k -> new RoaringBitmap()).add(i);
+				if (product.getPrice() != null) {
+					priceBits[priceBucket(product.getPrice())].add(i);
+				}
+				if (product.getStock() != null && product.getStock() > 0) {
+					inStockBits.add(i);
+				}
+			}
+			categoryIdByOrdinal = ordinals.keySet().toArray(new Integer[0]);
+			outOfStockBits = RoaringBitmap.flip(inStockBits, 0L, (long) size);
+
+			//连续的序号压缩成 run，稀疏类目保持数组容器
+			categoryBits.values().forEach(RoaringBitmap::runOptimize);
+			statusBits.values().forEach(RoaringBitmap::runOptimize);
+			for (RoaringBitmap bits : priceBits) {
+				bits.runOptimize();
+			}
+			inStockBits.runOptimize();
+			outOfStockBits.runOptimize();
+		}
+
+		ProductVo productVo(int i) {
+			ProductVo productVo = new ProductVo();
+			productVo.setId(productIds[i]);
+			productVo.setCategoryId(categoryIds[i]);
+			productVo.setName(names[i]);
+			productVo.setSubtitle(subtitles[i]);
+			productVo.setMainImage(mainImages[i]);
+			productVo.setStatus(statuses[i]);
+			productVo.setPrice(prices[i]);
+			return productVo;
+		}
+	}
+}
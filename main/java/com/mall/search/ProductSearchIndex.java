@@ -0,0 +1,331 @@
+package com.mall.search;
+
+import com.mall.dao.ProductMapper;
+import com.mall.enums.ProductStatusEnum;
+import com.mall.pojo.Product;
+import com.mall.vo.ProductVo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 商品全文检索：进程内倒排索引，覆盖在售商品的 name、subtitle
+ *
+ * 主索引不可变（token -> 按文档序号升序的倒排表），启动时和定时任务从mysql全量构建后整体替换
+ * 两次重建之间的商品变更通过 update 写入增量表（下架、删除也是 update），查询时主索引中被覆盖的商品跳过，增量表逐条匹配
+ * 增量表只在本节点：商品新建、修改、上下架提交后由执行写入的节点调用 update 立即可见，其它节点等下次重建（最多 REBUILD_INTERVAL_MINUTES）
+ * 排序：每个命中词按 (名称命中次数 * 3 + 副标题命中次数) * idf 累加
+ * 打分时只用大小为 offset + limit 的小顶堆保留当前最好的结果，不对全部命中排序
+ */
+@Slf4j
+@Component
+public class ProductSearchIndex {
+
+	private static final int LOAD_BATCH_SIZE = 1000;
+
+	private static final long REBUILD_INTERVAL_MINUTES = 10;
+
+	private static final int NAME_WEIGHT = 3;
+
+	private static final int SUBTITLE_WEIGHT = 1;
+
+	/** 得分降序，同分按 productId 升序 */
+	private static final Comparator<Hit> HIT_ORDER = Comparator.comparingDouble((Hit h) -> h.score).reversed()
+			.thenComparingInt(h -> h.doc.productId);
+
+	@Autowired
+	private ProductMapper productMapper;
+
+	private volatile Snapshot snapshot = new Snapshot(Collections.emptyList());
+
+	/** productId -> 最近一次变更，doc 为null表示已下架/删除 */
+	private final ConcurrentMap<Integer, Change> changes = new ConcurrentHashMap<>();
+
+	private final AtomicLong changeSeq = new AtomicLong();
+
+	private final ScheduledExecutorService rebuilder =
+			Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "product-search-rebuild");
+				t.setDaemon(true);
+				return t;
+			});
+
+	/**
+	 * 启动后在后台构建，构建完成前搜索结果为空，不阻塞应用启动
+	 */
+	@PostConstruct
+	public void init() {
+		rebuilder.scheduleWithFixedDelay(() -> {
+			try {
+				rebuild();
+			} catch (RuntimeException e) {
+				log.error("[ProductSearchIndex] 重建索引失败，继续使用旧索引", e);
+			}
+		}, 0, REBUILD_INTERVAL_MINUTES, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * 从mysql按id游标分批读取全部在售商品，重建主索引
+	 */
+	public void rebuild() {
+		long start = System.currentTimeMillis();
+		long seq = changeSeq.get();
+		List<Doc> docs = new ArrayList<>();
+		Integer lastId = null;
+		while (true) {
+			List<Product> batch = productMapper.selectByCategoryIdSetAfter(Collections.emptySet(), lastId, LOAD_BATCH_SIZE);
+			for (Product product : batch) {
+				docs.add(new Doc(product));
+			}
+			if (batch.size() < LOAD_BATCH_SIZE) {
+				break;
+			}
+			lastId = batch.get(batch.size() - 1).getId();
+		}
+
+		snapshot = new Snapshot(docs);
+		//重建开始前的变更已经体现在mysql里了
+		changes.values().removeIf(change -> change.seq <= seq);
+		log.info("[ProductSearchIndex] 重建完成，商品数 {}，词数 {}，耗时 {}ms",
+				docs.size(), snapshot.postings.size(), System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * 商品写库（提交）后调用，非在售状态等同于 remove；见 ProductServiceImpl 的商品写入
+	 */
+	public void update(Product product) {
+		Doc doc = ProductStatusEnum.ON_SALE.getCode().equals(product.getStatus()) ? new Doc(product) : null;
+		changes.put(product.getId(), new Change(doc, changeSeq.incrementAndGet()));
+	}
+
+	/**
+	 * @param categoryIdSet 为空表示不按类目过滤
+	 * @param offset 跳过前 offset 条，配合 limit 分页
+	 */
+	public SearchResult search(String keyword, Set<Integer> categoryIdSet, int offset, int limit) {
+		List<String> tokens = new ArrayList<>(new LinkedHashSet<>(CjkTokenizer.tokenizeForQuery(keyword)));
+		if (tokens.isEmpty()) {
+			return new SearchResult(0, Collections.emptyList());
+		}
+
+		Snapshot current = snapshot;
+		Map<Integer, Change> pending = changes;
+		//堆顶是目前保留的结果中最差的一条，新命中比它好时替换
+		int topN = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+		PriorityQueue<Hit> top = new PriorityQueue<>(Math.min(topN, 1024) + 1, HIT_ORDER.reversed());
+		long total = 0;
+
+		//主索引：从最短的倒排表开始求交集，同时累加得分
+		Posting[] postings = new Posting[tokens.size()];
+		for (int i = 0; i < tokens.size(); i++) {
+			postings[i] = current.postings.get(tokens.get(i));
+			if (postings[i] == null) {
+				postings = null;
+				break;
+			}
+		}
+		if (postings != null) {
+			Arrays.sort(postings, Comparator.comparingInt(p -> p.docs.length));
+			double[] idf = new double[postings.length];
+			for (int i = 0; i < postings.length; i++) {
+				idf[i] = Math.log(1 + (double) current.docs.length / postings[i].docs.length);
+			}
+			int[] cursors = new int[postings.length];
+			Posting shortest = postings[0];
+			outer:
+			for (int k = 0; k < shortest.docs.length; k++) {
+				int docOrdinal = shortest.docs[k];
+				double score = shortest.weights[k] * idf[0];
+				for (int i = 1; i < postings.length; i++) {
+					int pos = advance(postings[i].docs, cursors[i], docOrdinal);
+					cursors[i] = pos;
+					if (pos >= postings[i].docs.length) {
+						break outer;
+					}
+					if (postings[i].docs[pos] != docOrdinal) {
+						continue outer;
+					}
+					score += postings[i].weights[pos] * idf[i];
+				}
+				Doc doc = current.docs[docOrdinal];
+				if (!pending.containsKey(doc.productId) && matchesCategory(doc, categoryIdSet)) {
+					collect(top, topN, new Hit(doc, score));
+					total++;
+				}
+			}
+		}
+
+		//增量表：条数很少，逐条匹配
+		for (Change change : pending.values()) {
+			Doc doc = change.doc;
+			if (doc == null || !matchesCategory(doc, categoryIdSet)) {
+				continue;
+			}
+			double score = 0;
+			boolean matched = true;
+			for (String token : tokens) {
+				Integer weight = doc.tokenWeights.get(token);
+				if (weight == null) {
+					matched = false;
+					break;
+				}
+				Posting posting = current.postings.get(token);
+				int df = posting == null ? 1 : posting.docs.length + 1;
+				score += weight * Math.log(1 + (double) (current.docs.length + 1) / df);
+			}
+			if (matched) {
+				collect(top, topN, new Hit(doc, score));
+				total++;
+			}
+		}
+
+		List<Hit> hits = new ArrayList<>(top);
+		hits.sort(HIT_ORDER);
+		List<ProductVo> page = new ArrayList<>();
+		for (int i = offset; i < hits.size(); i++) {
+			page.add(hits.get(i).doc.productVo);
+		}
+		return new SearchResult(total, page);
+	}
+
+	private static void collect(PriorityQueue<Hit> top, int topN, Hit hit) {
+		if (top.size() < topN) {
+			top.add(hit);
+		} else if (topN > 0 && HIT_ORDER.compare(hit, top.peek()) < 0) {
+			top.poll();
+			top.add(hit);
+		}
+	}
+
+	private boolean matchesCategory(Doc doc, Set<Integer> categoryIdSet) {
+		return categoryIdSet.isEmpty() || categoryIdSet.contains(doc.categoryId);
+	}
+
+	/**
+	 * 在升序数组中从 from 开始找第一个 >= target 的位置（指数 + 二分查找）
+	 */
+	private static int advance(int[] docs, int from, int target) {
+		int bound = 1;
+		while (from + bound < docs.length && docs[from + bound] < target) {
+			bound <<= 1;
+		}
+		int low = from;
+		int high = Math.min(from + bound, docs.length - 1);
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (docs[mid] < target) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	public static class SearchResult {
+		private final long total;
+		private final List<ProductVo> list;
+
+		SearchResult(long total, List<ProductVo> list) {
+			this.total = total;
+			this.list = list;
+		}
+
+		public long getTotal() {
+			return total;
+		}
+
+		public List<ProductVo> getList() {
+			return list;
+		}
+	}
+
+	private static class Doc {
+		final int productId;
+		final Integer categoryId;
+		final ProductVo productVo;
+		/** 只有增量表中的文档保留，进入主索引后置null释放内存 */
+		Map<String, Integer> tokenWeights = new HashMap<>();
+
+		Doc(Product product) {
+			productId = product.getId();
+			categoryId = product.getCategoryId();
+			productVo = new ProductVo();
+			BeanUtils.copyProperties(product, productVo);
+			for (String token : CjkTokenizer.tokenizeForIndex(product.getName())) {
+				tokenWeights.merge(token, NAME_WEIGHT, Integer::sum);
+			}
+			for (String token : CjkTokenizer.tokenizeForIndex(product.getSubtitle())) {
+				tokenWeights.merge(token, SUBTITLE_WEIGHT, Integer::sum);
+			}
+		}
+	}
+
+	private static class Change {
+		final Doc doc;
+		final long seq;
+
+		Change(Doc doc, long seq) {
+			this.doc = doc;
+			this.seq = seq;
+		}
+	}
+
+	private static class Posting {
+		final int[] docs;
+		final int[] weights;
+
+		Posting(int[] docs, int[] weights) {
+			this.docs = docs;
+			this.weights = weights;
+		}
+	}
+
+	private static class Hit {
+		final Doc doc;
+		final double score;
+
+		Hit(Doc doc, double score) {
+			this.doc = doc;
+			this.score = score;
+		}
+	}
+
+	private static class Snapshot {
+		final Doc[] docs;
+		final Map<String, Posting> postings = new HashMap<>();
+
+		Snapshot(List<Doc> docList) {
+			docs = docList.toArray(new Doc[0]);
+			Map<String, List<int[]>> building = new HashMap<>();
+			for (int ordinal = 0; ordinal < docs.length; ordinal++) {
+				for (Map.Entry<String, Integer> entry : docs[ordinal].tokenWeights.entrySet()) {
+					building.computeIfAbsent(entry.getKey(), k -> new ArrayList<>())
+							.add(new int[]{ordinal, entry.getValue()});
+				}
+				docs[ordinal].tokenWeights = null;
+			}
+			//按文档序号顺序追加，倒排表天然有序
+			for (Map.Entry<String, List<int[]>> entry : building.entrySet()) {
+				List<int[]> list = entry.getValue();
+				int[] docIds = new int[list.size()];
+				int[] weights = new int[list.size()];
+				for (int i = 0; i < list.size(); i++) {
+					docIds[i] = list.get(i)[0];
+					weights[i] = list.get(i)[1];
+				}
+				postings.put(entry.getKey(), new Posting(docIds, weights));
+			}
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package com.mall.search;
+
+import com.mall.dao.OrderItemMapper;
+import com.mall.dao.ProductMapper;
+import com.mall.pojo.OrderItem;
+import com.mall.pojo.Product;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 商品名前缀联想：只收录在售商品，按销量排序
+ *
+ * 商品名(转小写)排序后存成数组，相当于一棵隐式的字典树：任一前缀对应数组中连续的一段，两次二分即可定位
+ * 段内取销量前 k 个用稀疏表(区间最大值)+ 优先队列，耗时 O(log n + k log k)，与段长无关
+ * 内存约为：商品名字符串 + 每条一个long权重 + 稀疏表 n*log2(n) 个int（10万商品约 7MB）
+ *
+ * 后台定时重建，构建完成后整体替换，查询不加锁
+ */
+@Slf4j
+@Component
+public class ProductSuggester {
+
+	private static final int LOAD_BATCH_SIZE = 1000;
+
+	private static final long REBUILD_INTERVAL_MINUTES = 10;
+
+	@Autowired
+	private ProductMapper productMapper;
+
+	@Autowired
+	private OrderItemMapper orderItemMapper;
+
+	private volatile Dictionary dictionary = new Dictionary(new TreeMap<>());
+
+	private final ScheduledExecutorService rebuilder =
+			Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "product-suggest-rebuild");
+				t.setDaemon(true);
+				return t;
+			});
+
+	@PostConstruct
+	public void init() {
+		rebuilder.scheduleWithFixedDelay(() -> {
+			try {
+				rebuild();
+			} catch (RuntimeException e) {
+				log.error("[ProductSuggester] 重建失败，继续使用旧词典", e);
+			}
+		}, 0, REBUILD_INTERVAL_MINUTES, TimeUnit.MINUTES);
+	}
+
+	public void rebuild() {
+		long start = System.currentTimeMillis();
+		Map<Integer, Long> sales = new HashMap<>();
+		for (OrderItem item : orderItemMapper.selectProductSales()) {
+			sales.put(item.getProductId(), item.getQuantity().longValue());
+		}
+
+		//同名商品只保留一条，权重取销量之和
+		TreeMap<String, Entry> entries = new TreeMap<>();
+		Integer lastId = null;
+		while (true) {
+			//该查询只返回在售商品
+			List<Product> batch = productMapper.selectByCategoryIdSetAfter(Collections.emptySet(), lastId, LOAD_BATCH_SIZE);
+			for (Product product : batch) {
+				if (product.getName() == null || product.getName().trim().isEmpty()) {
+					continue;
+				}
+				String name = product.getName().trim();
+				long weight = sales.getOrDefault(product.getId(), 0L);
+				entries.merge(name.toLowerCase(Locale.ROOT), new Entry(name, weight),
+						(a, b) -> new Entry(a.name, a.weight + b.weight));
+			}
+			if (batch.size() < LOAD_BATCH_SIZE) {
+				break;
+			}
+			lastId = batch.get(batch.size() - 1).getId();
+		}
+
+		dictionary = new Dictionary(entries);
+		log.info("[ProductSuggester] 重建完成，词条数 {}，耗时 {}ms", entries.size(), System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * @return 以 prefix 开头（忽略大小写）的商品名，按销量降序，最多 limit 个
+	 */
+	public List<String> suggest(String prefix, int limit) {
+		if (prefix == null || prefix.trim().isEmpty() || limit <= 0) {
+			return Collections.emptyList();
+		}
+		return dictionary.topK(prefix.trim().toLowerCase(Locale.ROOT), limit);
+	}
+
+	private static class Entry {
+		final String name;
+		final long weight;
+
+		Entry(String name, long weight) {
+			this.name = name;
+			this.weight = weight;
+		}
+	}
+
+	private static class Dictionary {
+		final String[] keys;
+		final String[] names;
+		final long[] weights;
+		/** maxIndex[j][i]：区间 [i, i + 2^j) 内权重最大的下标 */
+		final int[][] maxIndex;
+
+		Dictionary(SortedMap<String, Entry> entries) {
+			int n = entries.size();
+			keys = new String[n];
+			names = new String[n];
+			weights = new long[n];
+			int i = 0;
+			for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+				keys[i] = entry.getKey();
+				names[i] = entry.getValue().name;
+				weights[i] = entry.getValue().weight;
+				i++;
+			}
+
+			int levels = n == 0 ? 0 : 32 - Integer.numberOfLeadingZeros(n);
+			maxIndex = new int[levels][];
+			if (levels > 0) {
+				maxIndex[0] = new int[n];
+				for (int k = 0; k < n; k++) {
+					maxIndex[0][k] = k;
+				}
+			}
+			for (int j = 1; j < levels; j++) {
+				int half = 1 << (j - 1);
+				int size = n - (1 << j) + 1;
+				maxIndex[j] = new int[size];
+				for (int k = 0; k < size; k++) {
+					maxIndex[j][k] = heavier(maxIndex[j - 1][k], maxIndex[j - 1][k + half]);
+				}
+			}
+		}
+
+		List<String> topK(String prefix, int k) {
+			int from = lowerBound(prefix);
+			int to = lowerBound(prefix + Character.MAX_VALUE);
+			List<String> result = new ArrayList<>();
+			if (from >= to) {
+				return result;
+			}
+
+			//每次取出权重最大的区间最大值，再把区间从该位置一分为二放回队列
+			PriorityQueue<int[]> queue = new PriorityQueue<>(
+					(a, b) -> Long.compare(weights[b[2]], weights[a[2]]) != 0
+							? Long.compare(weights[b[2]], weights[a[2]])
+							: Integer.compare(a[2], b[2]));
+			queue.add(new int[]{from, to, argMax(from, to)});
+			while (!queue.isEmpty() && result.size() < k) {
+				int[] range = queue.poll();
+				int max = range[2];
+				result.add(names[max]);
+				if (range[0] < max) {
+					queue.add(new int[]{range[0], max, argMax(range[0], max)});
+				}
+				if (max + 1 < range[1]) {
+					queue.add(new int[]{max + 1, range[1], argMax(max + 1, range[1])});
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * 区间 [from, to) 内权重最大的下标，权重相同取靠前的
+		 */
+		private int argMax(int from, int to) {
+			int j = 31 - Integer.numberOfLeadingZeros(to - from);
+			return heavier(maxIndex[j][from], maxIndex[j][to - (1 << j)]);
+		}
+
+		private int heavier(int a, int b) {
+			if (weights[a] != weights[b]) {
+				return weights[a] > weights[b] ? a : b;
+			}
+			return Math.min(a, b);
+		}
+
+		private int lowerBound(String key) {
+			int low = 0;
+			int high = keys.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (keys[mid].compareTo(key) < 0) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+	}
+}
@@ -3,10 +3,12 @@ package com.mall.service;
 import com.mall.form.CartAddForm;
 import com.mall.form.CartUpdateForm;
 import com.mall.pojo.Cart;
+import com.mall.vo.CartChangeVo;
 import com.mall.vo.CartVo;
 import com.mall.vo.ResponseVo;
 
 import java.util.List;
+import java.util.Set;
 
 
 public interface ICartService {
@@ -19,11 +21,31 @@ public interface ICartService {
 
 	ResponseVo<CartVo> delete(Integer uid, Integer productId);
 
+	/**
+	 * 以下 *Lite 方法只返回本次修改的商品和购物车汇总，不返回完整购物车
+	 */
+	ResponseVo<CartChangeVo> addLite(Integer uid, CartAddForm form);
+
+	ResponseVo<CartChangeVo> updateLite(Integer uid, Integer productId, CartUpdateForm form);
+
+	ResponseVo<CartChangeVo> deleteLite(Integer uid, Integer productId);
+
 	ResponseVo<CartVo> selectAll(Integer uid);
 
 	ResponseVo<CartVo> unSelectAll(Integer uid);
 
 	ResponseVo<Integer> sum(Integer uid);
 
+	/**
+	 * 批量删除购物车中的商品（一次redis请求），不返回购物车视图
+	 */
+	void deleteBatch(Integer uid, Set<Integer> productIdSet);
+
+	/**
+	 * 对账：按购物车全量重建汇总（商品总数量、选中行数、行数）
+	 * list 发现汇总与购物车不一致时会调用
+	 */
+	void reconcileSummary(Integer uid);
+
 	List<Cart> listForCart(Integer uid);
 }
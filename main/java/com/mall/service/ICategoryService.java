@@ -12,4 +12,19 @@ public interface ICategoryService {
 	ResponseVo<List<CategoryVo>> selectAll();
 
 	void findSubCategoryId(Integer id, Set<Integer> resultSet);
+
+	/**
+	 * 类目树的版本号（用作 ETag），类目有任何变化都会改变
+	 */
+	String version();
+
+	/**
+	 * 类目树最后修改时间（毫秒），用作 Last-Modified
+	 */
+	long lastModified();
+
+	/**
+	 * 类目变更后调用，重建内存中的类目索引
+	 */
+	void refresh();
 }
@@ -1,15 +1,25 @@
 package com.mall.service;
 
 import com.github.pagehelper.PageInfo;
+import com.mall.enums.PageCountModeEnum;
+import com.mall.pojo.Cart;
 import com.mall.vo.OrderVo;
 import com.mall.vo.ResponseVo;
 
+import java.util.List;
+
 
 public interface IOrderService {
 
 	ResponseVo<OrderVo> create(Integer uid, Integer shippingId);
 
-	ResponseVo<PageInfo> list(Integer uid, Integer pageNum, Integer pageSize);
+	/**
+	 * 使用事先生成的订单号，按给定的购物车行下单（异步下单时订单号即排队凭证，cartLines 为提交时的购物车快照）
+	 * @param cartLines 只下单其中选中的行
+	 */
+	ResponseVo<OrderVo> create(Integer uid, Integer shippingId, Long orderNo, List<Cart> cartLines);
+
+	ResponseVo<PageInfo> list(Integer uid, Integer pageNum, Integer pageSize, PageCountModeEnum countMode);
 
 	ResponseVo<OrderVo> detail(Integer uid, Long orderNo);
 
@@ -1,13 +1,71 @@
 package com.mall.service;
 
 import com.github.pagehelper.PageInfo;
+import com.mall.enums.PageCountModeEnum;
+import com.mall.enums.ProductSortEnum;
+import com.mall.form.ProductForm;
+import com.mall.vo.ProductCursorVo;
 import com.mall.vo.ProductDetailVo;
+import com.mall.vo.ProductFilterVo;
+import com.mall.vo.ProductVersionVo;
 import com.mall.vo.ResponseVo;
 
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 
 public interface IProductService {
 
-	ResponseVo<PageInfo> list(Integer categoryId, Integer pageNum, Integer pageSize);
+	ResponseVo<PageInfo> list(Integer categoryId, Integer pageNum, Integer pageSize,
+							  PageCountModeEnum countMode, ProductSortEnum sort);
+
+	/**
+	 * 游标分页，cursor 为上一页返回的 nextCursor，第一页传null
+	 */
+	ResponseVo<ProductCursorVo> scroll(Integer categoryId, String cursor, Integer pageSize);
+
+	/**
+	 * 按关键字搜索在售商品（name、subtitle），按相关度排序
+	 */
+	ResponseVo<PageInfo> search(String keyword, Integer categoryId, Integer pageNum, Integer pageSize);
+
+	/**
+	 * 商品名前缀联想，按销量排序
+	 */
+	ResponseVo<List<String>> suggest(String prefix, Integer limit);
+
+	/**
+	 * 按类目(多选，含子类目)、价格区间(多选)、是否有货筛选在售商品，并返回分面计数
+	 */
+	ResponseVo<ProductFilterVo> filter(Set<Integer> categoryIds, Set<Integer> priceBuckets, Boolean inStock,
+									   Integer pageNum, Integer pageSize);
 
 	ResponseVo<ProductDetailVo> detail(Integer productId);
+
+	/**
+	 * 商品详情的校验值，只读商品缓存、不构建详情，用于条件请求
+	 * @return 商品不存在时返回null
+	 */
+	ProductVersionVo detailVersion(Integer productId);
+
+	/**
+	 * 批量商品详情，规则同 detail；不存在或已下架的商品在各自的结果中报错，不影响其它商品
+	 */
+	ResponseVo<Map<Integer, ResponseVo<ProductDetailVo>>> detailBatch(List<Integer> productIds);
+
+	/**
+	 * 新建商品（下架状态），返回 productId
+	 */
+	ResponseVo<Map<String, Integer>> add(ProductForm form);
+
+	/**
+	 * 修改商品信息，不修改库存和状态
+	 */
+	ResponseVo update(Integer productId, ProductForm form);
+
+	/**
+	 * 上架、下架、删除，status 见 ProductStatusEnum
+	 */
+	ResponseVo updateStatus(Integer productId, Integer status);
 }
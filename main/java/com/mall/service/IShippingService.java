@@ -1,6 +1,7 @@
 package com.mall.service;
 
 import com.github.pagehelper.PageInfo;
+import com.mall.enums.PageCountModeEnum;
 import com.mall.form.ShippingForm;
 import com.mall.vo.ResponseVo;
 
@@ -15,5 +16,5 @@ public interface IShippingService {
 
 	ResponseVo update(Integer uid, Integer shippingId, ShippingForm form);
 
-	ResponseVo<PageInfo> list(Integer uid, Integer pageNum, Integer pageSize);
+	ResponseVo<PageInfo> list(Integer uid, Integer pageNum, Integer pageSize, PageCountModeEnum countMode);
 }
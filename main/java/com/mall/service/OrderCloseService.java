@@ -1,8 +1,8 @@
 package com.mall.service;
 
+import com.mall.cache.StockReservation;
 import com.mall.dao.OrderItemMapper;
 import com.mall.dao.OrderMapper;
-import com.mall.dao.ProductMapper;
 import com.mall.pojo.Order;
 import com.mall.pojo.OrderItem;
 import lombok.extern.slf4j.Slf4j;
@@ -11,6 +11,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
 import java.util.*;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Service
@@ -18,7 +19,8 @@ public class OrderCloseService {
 
     @Resource private OrderMapper orderMapper;
     @Resource private OrderItemMapper orderItemMapper;
-    @Resource private ProductMapper productMapper;
+    @Resource private StockReservation stockReservation;
+    @Resource private StockSlotService stockSlotService;
 
     /**
      * 超时到点：若订单仍为【未付款(10)】，则改为【已取消(0)】并按明细回补库存
@@ -45,8 +47,11 @@ public class OrderCloseService {
         Set<Long> one = Collections.singleton(orderNo);
         List<OrderItem> items = orderItemMapper.selectByOrderNoSet(one);
         for (OrderItem it : items) {
-            productMapper.addStock(it.getProductId(), it.getQuantity());
+            stockSlotService.add(it.getProductId(), it.getQuantity());
         }
+        // 3) 事务提交后归还 redis 中的可售库存
+        stockReservation.restore(items.stream()
+                .collect(Collectors.toMap(OrderItem::getProductId, OrderItem::getQuantity, Integer::sum)));
 
         log.info("{} 超时未支付，已自动取消并完成库存回补", orderNo);
     }
@@ -0,0 +1,10 @@
+package com.mall.service;
+
+/**
+ * 订单号生成器
+ * 实现需保证：全局（跨节点）唯一、单节点内严格递增、整体随时间递增（mall_order 按 order_no 的索引顺序写入）
+ */
+public interface OrderNoGenerator {
+
+	Long nextOrderNo();
+}
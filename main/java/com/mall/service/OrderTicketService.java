@@ -0,0 +1,251 @@
+package com.mall.service;
+
+import com.google.gson.Gson;
+import com.mall.cache.StockReservation;
+import com.mall.dao.OrderMapper;
+import com.mall.dao.ShippingMapper;
+import com.mall.enums.OrderTicketStatusEnum;
+import com.mall.enums.ResponseEnum;
+import com.mall.pojo.Cart;
+import com.mall.pojo.OrderCreateMessage;
+import com.mall.vo.OrderTicketVo;
+import com.mall.vo.OrderVo;
+import com.mall.vo.ResponseVo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.AmqpTemplate;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static com.mall.config.RabbitConfig.QUEUE_ORDER_CREATE;
+
+/**
+ * 异步下单：请求线程只做轻量校验（购物车、redis库存、收货地址），生成订单号后投递到 orderCreate 队列立即返回
+ * 固定数量的消费者按 mysql 能承受的速度调用 IOrderService.create，结果写入凭证，客户端按订单号轮询
+ *
+ * 凭证存 redis，同一用户同时只能有一个排队中的订单，防止排队期间重复提交同一购物车
+ */
+@Slf4j
+@Service
+public class OrderTicketService {
+
+	private static final String TICKET_REDIS_KEY_TEMPLATE = "order_ticket_%d_%d";
+
+	/** uid -> 排队中的订单号 */
+	private static final String PENDING_REDIS_KEY_TEMPLATE = "order_ticket_pending_%d";
+
+	private static final long TICKET_TTL_MINUTES = 60;
+
+	/** 消费者异常退出时，过期后用户可以重新下单 */
+	private static final long PENDING_TTL_MINUTES = 10;
+
+	/** 轮询时返回的积压数缓存一会，不必每次都查 rabbitmq */
+	private static final long BACKLOG_REFRESH_MILLIS = 1000;
+
+	@Autowired
+	private IOrderService orderService;
+
+	@Autowired
+	private ICartService cartService;
+
+	@Autowired
+	private OrderNoGenerator orderNoGenerator;
+
+	@Autowired
+	private StockReservation stockReservation;
+
+	@Autowired
+	private ShippingMapper shippingMapper;
+
+	@Autowired
+	private OrderMapper orderMapper;
+
+	@Autowired
+	private AmqpTemplate amqpTemplate;
+
+	@Autowired
+	private AmqpAdmin amqpAdmin;
+
+	@Autowired
+	private StringRedisTemplate redisTemplate;
+
+	private final Gson gson = new Gson();
+
+	private final LongAdder submitted = new LongAdder();
+
+	private final LongAdder succeeded = new LongAdder();
+
+	private final LongAdder failed = new LongAdder();
+
+	private volatile long backlog;
+
+	private volatile long backlogRefreshedAt;
+
+	// 定时打印队列积压，用于评估消费者数量
+	private final ScheduledExecutorService statsLogger =
+			Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "order-ticket-stats");
+				t.setDaemon(true);
+				return t;
+			});
+
+	@PostConstruct
+	public void init() {
+		statsLogger.scheduleAtFixedRate(() -> {
+			try {
+				log.info("[OrderTicket] {}", stats());
+			} catch (RuntimeException e) {
+				log.warn("[OrderTicket] 读取队列积压失败", e);
+			}
+		}, 1, 1, TimeUnit.MINUTES);
+	}
+
+	public ResponseVo<OrderTicketVo> submit(Integer uid, Integer shippingId) {
+		List<Cart> cartList = cartService.listForCart(uid).stream()
+				.filter(Cart::getProductSelected)
+				.collect(Collectors.toList());
+		if (cartList.isEmpty()) {
+			return ResponseVo.error(ResponseEnum.CART_SELECTED_IS_EMPTY);
+		}
+		Integer soldOutProductId = stockReservation.checkSoldOut(cartList.stream()
+				.collect(Collectors.toMap(Cart::getProductId, Cart::getQuantity)));
+		if (soldOutProductId != null) {
+			return ResponseVo.error(ResponseEnum.PROODUCT_STOCK_ERROR, "库存不足. productId = " + soldOutProductId);
+		}
+		if (shippingMapper.selectByUidAndShippingId(uid, shippingId) == null) {
+			return ResponseVo.error(ResponseEnum.SHIPPING_NOT_EXIST);
+		}
+
+		Long orderNo = orderNoGenerator.nextOrderNo();
+		if (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(
+				pendingKey(uid), String.valueOf(orderNo), PENDING_TTL_MINUTES, TimeUnit.MINUTES))) {
+			return ResponseVo.error(ResponseEnum.ORDER_IN_QUEUE);
+		}
+		OrderTicketVo ticket = ticket(orderNo, OrderTicketStatusEnum.QUEUED, OrderTicketStatusEnum.QUEUED.getDesc());
+		try {
+			saveTicket(uid, ticket);
+			amqpTemplate.convertAndSend(QUEUE_ORDER_CREATE, gson.toJson(new OrderCreateMessage(uid, shippingId, orderNo, cartList)));
+		} catch (RuntimeException e) {
+			redisTemplate.delete(Arrays.asList(pendingKey(uid), ticketKey(uid, orderNo)));
+			throw e;
+		}
+		submitted.increment();
+
+		ticket.setBacklog(backlog());
+		return ResponseVo.success(ticket);
+	}
+
+	public ResponseVo<OrderTicketVo> status(Integer uid, Long orderNo) {
+		OrderTicketVo ticket = loadTicket(uid, orderNo);
+		if (ticket == null) {
+			return ResponseVo.error(ResponseEnum.ORDER_NOT_EXIST);
+		}
+		if (OrderTicketStatusEnum.QUEUED.getCode().equals(ticket.getStatus())) {
+			ticket.setBacklog(backlog());
+		}
+		return ResponseVo.success(ticket);
+	}
+
+	/**
+	 * 消费者调用，消息重复投递时幂等
+	 */
+	public void process(OrderCreateMessage message) {
+		Integer uid = message.getUid();
+		Long orderNo = message.getOrderNo();
+		OrderTicketVo current = loadTicket(uid, orderNo);
+		if (current != null && !OrderTicketStatusEnum.QUEUED.getCode().equals(current.getStatus())) {
+			return;
+		}
+
+		//上次已经下单成功、但没来得及更新凭证就重投：购物车已清空，再调用 create 会返回失败，直接记为成功
+		if (orderMapper.selectByOrderNo(orderNo) != null) {
+			saveTicket(uid, ticket(orderNo, OrderTicketStatusEnum.SUCCESS, OrderTicketStatusEnum.SUCCESS.getDesc()));
+			succeeded.increment();
+			redisTemplate.delete(pendingKey(uid));
+			return;
+		}
+
+		ResponseVo<OrderVo> result;
+		try {
+			//升级前入队的消息没有购物车快照，按当前购物车下单
+			List<Cart> cartList = message.getCartList() != null ? message.getCartList() : cartService.listForCart(uid);
+			result = orderService.create(uid, message.getShippingId(), orderNo, cartList);
+		} catch (RuntimeException e) {
+			//兜底：与并发投递的同一消息竞争时，重复下单会违反 order_no 唯一索引
+			if (orderMapper.selectByOrderNo(orderNo) != null) {
+				result = ResponseVo.success();
+			} else {
+				log.error("[OrderTicket] 异步下单失败 orderNo={}", orderNo, e);
+				result = ResponseVo.error(ResponseEnum.ERROR, e.getMessage());
+			}
+		}
+
+		if (ResponseEnum.SUCCESS.getCode().equals(result.getStatus())) {
+			saveTicket(uid, ticket(orderNo, OrderTicketStatusEnum.SUCCESS, OrderTicketStatusEnum.SUCCESS.getDesc()));
+			succeeded.increment();
+		} else {
+			saveTicket(uid, ticket(orderNo, OrderTicketStatusEnum.FAILED, result.getMsg()));
+			failed.increment();
+		}
+		redisTemplate.delete(pendingKey(uid));
+	}
+
+	/**
+	 * orderCreate 队列中尚未被消费的消息数，取不到时为 -1
+	 */
+	public long backlog() {
+		long now = System.currentTimeMillis();
+		if (now - backlogRefreshedAt > BACKLOG_REFRESH_MILLIS) {
+			Properties properties = amqpAdmin.getQueueProperties(QUEUE_ORDER_CREATE);
+			Object count = properties == null ? null : properties.get(RabbitAdmin.QUEUE_MESSAGE_COUNT);
+			backlog = count == null ? -1 : ((Number) count).longValue();
+			backlogRefreshedAt = now;
+		}
+		return backlog;
+	}
+
+	public Map<String, Long> stats() {
+		Map<String, Long> stats = new LinkedHashMap<>();
+		stats.put("submitted", submitted.sum());
+		stats.put("succeeded", succeeded.sum());
+		stats.put("failed", failed.sum());
+		stats.put("backlog", backlog());
+		return stats;
+	}
+
+	private OrderTicketVo ticket(Long orderNo, OrderTicketStatusEnum status, String msg) {
+		OrderTicketVo ticket = new OrderTicketVo();
+		ticket.setOrderNo(orderNo);
+		ticket.setStatus(status.getCode());
+		ticket.setMsg(msg);
+		return ticket;
+	}
+
+	private void saveTicket(Integer uid, OrderTicketVo ticket) {
+		redisTemplate.opsForValue().set(ticketKey(uid, ticket.getOrderNo()), gson.toJson(ticket),
+				TICKET_TTL_MINUTES, TimeUnit.MINUTES);
+	}
+
+	private OrderTicketVo loadTicket(Integer uid, Long orderNo) {
+		String value = redisTemplate.opsForValue().get(ticketKey(uid, orderNo));
+		return value == null ? null : gson.fromJson(value, OrderTicketVo.class);
+	}
+
+	private String ticketKey(Integer uid, Long orderNo) {
+		return String.format(TICKET_REDIS_KEY_TEMPLATE, uid, orderNo);
+	}
+
+	private String pendingKey(Integer uid) {
+		return String.format(PENDING_REDIS_KEY_TEMPLATE, uid);
+	}
+}
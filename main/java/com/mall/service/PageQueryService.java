@@ -0,0 +1,130 @@
+package com.mall.service;
+
+import com.github.pagehelper.PageHelper;
+import com.github.pagehelper.PageInfo;
+import com.mall.cache.LocalLruCache;
+import com.mall.enums.PageCountModeEnum;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * 分页查询：按 PageCountModeEnum 决定是否以及如何计算总数
+ * query 只需执行一次普通的 mapper 查询，分页 SQL 由 PageHelper 拼接
+ */
+@Slf4j
+@Service
+public class PageQueryService {
+
+	/** 缓存总数超过该时间后，下次请求触发异步刷新 */
+	private static final long COUNT_REFRESH_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+	/** 长时间没人访问的缓存总数直接淘汰 */
+	private static final long COUNT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+	private final LocalLruCache<String, CachedCount> counts = new LocalLruCache<>(10_000, 16);
+
+	private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+	// 计数刷新线程池，队列满了直接丢弃，下次请求会再触发
+	private final ThreadPoolExecutor countRefresher = new ThreadPoolExecutor(2, 2,
+			0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(1000), r -> {
+				Thread t = new Thread(r, "page-count-refresh");
+				t.setDaemon(true);
+				return t;
+			}, new ThreadPoolExecutor.DiscardPolicy());
+
+	/**
+	 * @param countKey CACHED 模式下缓存总数的key，需唯一对应一种查询条件
+	 */
+	public <T> PageInfo<T> page(PageCountModeEnum mode, String countKey,
+								int pageNum, int pageSize, Supplier<List<T>> query) {
+		switch (mode) {
+			case NONE: {
+				PageHelper.startPage(pageNum, pageSize, false);
+				List<T> rows = new ArrayList<>(query.get());
+				return pageOf(rows, pageNum, pageSize, -1, rows.size() >= pageSize);
+			}
+			case HAS_NEXT: {
+				PageHelper.offsetPage((pageNum - 1) * pageSize, pageSize + 1, false);
+				List<T> rows = new ArrayList<>(query.get());
+				boolean hasNext = rows.size() > pageSize;
+				if (hasNext) {
+					rows = new ArrayList<>(rows.subList(0, pageSize));
+				}
+				return pageOf(rows, pageNum, pageSize, -1, hasNext);
+			}
+			case CACHED: {
+				long total = cachedCount(countKey, query);
+				PageHelper.startPage(pageNum, pageSize, false);
+				List<T> rows = new ArrayList<>(query.get());
+				long pages = (total + pageSize - 1) / pageSize;
+				return pageOf(rows, pageNum, pageSize, total, pageNum < pages);
+			}
+			case EXACT:
+			default:
+				PageHelper.startPage(pageNum, pageSize);
+				return new PageInfo<>(query.get());
+		}
+	}
+
+	/**
+	 * 第一次同步计数，之后过期只触发异步刷新，本次仍返回旧值
+	 */
+	private long cachedCount(String countKey, Supplier<? extends List<?>> query) {
+		CachedCount cached = counts.get(countKey);
+		if (cached == null) {
+			long total = PageHelper.count(query::get);
+			counts.put(countKey, new CachedCount(total), COUNT_TTL_MILLIS);
+			return total;
+		}
+		if (System.currentTimeMillis() - cached.loadedAt > COUNT_REFRESH_MILLIS && refreshing.add(countKey)) {
+			try {
+				countRefresher.execute(() -> {
+					try {
+						counts.put(countKey, new CachedCount(PageHelper.count(query::get)), COUNT_TTL_MILLIS);
+					} catch (RuntimeException e) {
+						log.error("[PageQueryService] 刷新总数失败 key={}", countKey, e);
+					} finally {
+						refreshing.remove(countKey);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				refreshing.remove(countKey);
+			}
+		}
+		return cached.total;
+	}
+
+	/**
+	 * 用已经取好的一页数据构造 PageInfo，total < 0 表示总数未知
+	 */
+	public static <T> PageInfo<T> pageOf(List<T> rows, int pageNum, int pageSize, long total, boolean hasNext) {
+		PageInfo<T> pageInfo = new PageInfo<>(rows);
+		pageInfo.setPageNum(pageNum);
+		pageInfo.setPageSize(pageSize);
+		pageInfo.setTotal(total);
+		pageInfo.setPages(total < 0 ? 0 : (int) ((total + pageSize - 1) / pageSize));
+		pageInfo.setIsFirstPage(pageNum == 1);
+		pageInfo.setHasPreviousPage(pageNum > 1);
+		pageInfo.setPrePage(pageNum > 1 ? pageNum - 1 : 0);
+		pageInfo.setHasNextPage(hasNext);
+		pageInfo.setIsLastPage(!hasNext);
+		pageInfo.setNextPage(hasNext ? pageNum + 1 : 0);
+		return pageInfo;
+	}
+
+	private static class CachedCount {
+		final long total;
+		final long loadedAt = System.currentTimeMillis();
+
+		CachedCount(long total) {
+			this.total = total;
+		}
+	}
+}
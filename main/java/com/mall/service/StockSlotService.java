@@ -0,0 +1,283 @@
+package com.mall.service;
+
+import com.mall.cache.ProductCache;
+import com.mall.dao.ProductMapper;
+import com.mall.dao.ProductStockSlotMapper;
+import com.mall.enums.ResponseEnum;
+import com.mall.pojo.Product;
+import com.mall.pojo.ProductStockSlot;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 库存扣减/回补的统一入口，热点商品走分槽库存
+ *
+ * 热点商品（mall_product_stock_slot 中有记录）的库存拆成 N 行：先不加锁读出各槽位库存，从随机位置开始只对够扣的槽位发条件 UPDATE，
+ * 单个槽位都不够时按槽位号顺序锁住全部有库存的槽位凑数；回补按数量均摊到各槽位
+ * 这样同一商品的并发下单分散在 N 个行锁上，不再全部排队等 mall_product 的同一行
+ *
+ * 从随机槽位开始尝试只在 READ COMMITTED 事务中进行：REPEATABLE READ 下条件不满足的 UPDATE 也会一直持有该行的锁，
+ * 乱序持有的槽位锁再按槽位号顺序加锁就会死锁；READ COMMITTED 下不满足条件的行立即释放锁（需 binlog_format=ROW）
+ * 其他隔离级别下直接按槽位号顺序加锁扣减，不会死锁，只是并发度低一些。下单只在包含热点商品时才用 READ COMMITTED
+ *
+ * mall_product.stock 对热点商品只是展示用的汇总值，由定时任务按各槽位之和回写，值变化时才更新（连同 update_time）并清库存缓存
+ * 各节点都会刷新热点商品列表，回写用 redis 锁保证同一时刻只有一个节点在写
+ * 普通商品的 deductStock 带有"不是热点商品"的条件，其他节点还没发现商品已拆分时也不会从汇总值上扣减
+ */
+@Slf4j
+@Service
+public class StockSlotService {
+
+	private static final long SYNC_INTERVAL_SECONDS = 2;
+
+	private static final String SYNC_LOCK_REDIS_KEY = "stock_slot_sync_lock";
+
+	/** 锁的过期时间，远大于正常回写耗时；节点宕机时到期自动释放 */
+	private static final long SYNC_LOCK_SECONDS = 30;
+
+	@Autowired
+	private ProductMapper productMapper;
+
+	@Autowired
+	private ProductStockSlotMapper productStockSlotMapper;
+
+	@Autowired
+	private ProductCache productCache;
+
+	@Autowired
+	private StringRedisTemplate redisTemplate;
+
+	@Autowired
+	private RedisScript<Long> lockReleaseScript;
+
+	/** 热点商品 productId -> 槽位数 */
+	private volatile Map<Integer, Integer> slotCounts = Collections.emptyMap();
+
+	/** 本节点上次回写到 mall_product 的汇总库存，没变化时不写 */
+	private Map<Integer, Integer> lastTotals = new HashMap<>();
+
+	private final ScheduledExecutorService syncer =
+			Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "stock-slot-sync");
+				t.setDaemon(true);
+				return t;
+			});
+
+	@PostConstruct
+	public void init() {
+		syncer.scheduleWithFixedDelay(() -> {
+			try {
+				sync();
+			} catch (RuntimeException e) {
+				log.error("[StockSlot] 回写汇总库存失败", e);
+			}
+		}, 0, SYNC_INTERVAL_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * 在下单事务中调用；热点商品在 READ COMMITTED 下并发度更高，见类注释
+	 * @return false 库存不足，调用方需回滚事务
+	 */
+	public boolean deduct(Integer productId, Integer quantity) {
+		if (!slotCounts.containsKey(productId)) {
+			if (productMapper.deductStock(productId, quantity) > 0) {
+				productCache.evictStock(productId);
+				return true;
+			}
+			//刚拆分为热点商品、本节点还没同步到时 deductStock 也返回0，查一次槽位确认
+			if (productStockSlotMapper.selectByProductId(productId).isEmpty()) {
+				return false;
+			}
+		}
+
+		Integer isolation = TransactionSynchronizationManager.getCurrentTransactionIsolationLevel();
+		if (isolation != null && isolation == TransactionDefinition.ISOLATION_READ_COMMITTED
+				&& deductFromAnySlot(productId, quantity)) {
+			return true;
+		}
+
+		//没有单个槽位够扣（临近售罄时库存分散在各槽位），或不在 READ COMMITTED 事务中：按槽位号顺序加锁后从多个槽位凑
+		List<ProductStockSlot> slots = productStockSlotMapper.selectAvailableForUpdate(productId);
+		int total = slots.stream().mapToInt(ProductStockSlot::getStock).sum();
+		if (total < quantity) {
+			return false;
+		}
+		int remaining = quantity;
+		for (ProductStockSlot slot : slots) {
+			int take = Math.min(remaining, slot.getStock());
+			productStockSlotMapper.deduct(productId, slot.getSlot(), take);
+			remaining -= take;
+			if (remaining == 0) {
+				break;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 只对读到时够扣的槽位发 UPDATE，从随机槽位开始；被并发抢先扣完的槽位条件不满足，READ COMMITTED 下锁随即释放
+	 */
+	private boolean deductFromAnySlot(Integer productId, Integer quantity) {
+		List<ProductStockSlot> snapshot = productStockSlotMapper.selectByProductId(productId);
+		if (!snapshot.isEmpty()) {
+			int start = ThreadLocalRandom.current().nextInt(snapshot.size());
+			for (int i = 0; i < snapshot.size(); i++) {
+				ProductStockSlot slot = snapshot.get((start + i) % snapshot.size());
+				if (slot.getStock() >= quantity
+						&& productStockSlotMapper.deduct(productId, slot.getSlot(), quantity) > 0) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 订单取消、超时关单时回补库存
+	 */
+	public void add(Integer productId, Integer quantity) {
+		Integer slotCount = slotCounts.get(productId);
+		if (slotCount == null) {
+			if (productMapper.addStock(productId, quantity) > 0) {
+				productCache.evictStock(productId);
+				return;
+			}
+			//本节点还不知道该商品已拆分，从 mysql 读槽位数
+			slotCount = productStockSlotMapper.selectByProductId(productId).size();
+			if (slotCount == 0) {
+				//两次查询之间刚合并回普通商品，或商品已删除
+				if (productMapper.addStock(productId, quantity) > 0) {
+					productCache.evictStock(productId);
+				} else {
+					log.warn("[StockSlot] 商品 {} 回补库存 {} 失败，商品不存在", productId, quantity);
+				}
+				return;
+			}
+		}
+
+		//均摊到各槽位，余数从随机槽位开始分配；按槽位号升序更新，避免并发回补互相死锁
+		int start = ThreadLocalRandom.current().nextInt(slotCount);
+		int notAdded = 0;
+		for (int slot = 0; slot < slotCount; slot++) {
+			int offset = Math.floorMod(slot - start, slotCount);
+			int amount = quantity / slotCount + (offset < quantity % slotCount ? 1 : 0);
+			if (amount > 0 && productStockSlotMapper.add(productId, slot, amount) <= 0) {
+				notAdded += amount;
+			}
+		}
+		//刚合并回普通商品，槽位已删除
+		if (notAdded > 0) {
+			productMapper.addStock(productId, notAdded);
+		}
+	}
+
+	/**
+	 * 把商品拆分为 slotCount 个槽位，当前库存均摊到各槽位
+	 */
+	@Transactional
+	public void split(Integer productId, int slotCount) {
+		if (slotCount < 1) {
+			throw new IllegalArgumentException("槽位数必须大于0");
+		}
+		Product product = productMapper.selectByPrimaryKey(productId);
+		if (product == null) {
+			throw new RuntimeException(ResponseEnum.PRODUCT_NOT_EXIST.getDesc() + " productId = " + productId);
+		}
+		//先把库存整体扣到0，期间的并发下单不会再从 mall_product 扣减
+		int stock = product.getStock();
+		if (stock > 0 && productMapper.deductStock(productId, stock) <= 0) {
+			throw new RuntimeException("库存已变化，请重试. productId = " + productId);
+		}
+
+		List<ProductStockSlot> slots = new ArrayList<>();
+		for (int slot = 0; slot < slotCount; slot++) {
+			slots.add(new ProductStockSlot(productId, slot, stock / slotCount + (slot < stock % slotCount ? 1 : 0)));
+		}
+		productStockSlotMapper.batchInsert(slots);
+		productMapper.updateStock(productId, stock);
+		productCache.evictStock(productId);
+		syncAfterCommit();
+		log.info("[StockSlot] 商品 {} 拆分为 {} 个槽位，库存 {}", productId, slotCount, stock);
+	}
+
+	/**
+	 * 取消分槽：各槽位库存合并回 mall_product
+	 */
+	@Transactional
+	public void merge(Integer productId) {
+		Integer total = productStockSlotMapper.sumForUpdate(productId);
+		if (total == null) {
+			return;
+		}
+		productStockSlotMapper.deleteByProductId(productId);
+		productMapper.updateStock(productId, total);
+		productCache.evictStock(productId);
+		syncAfterCommit();
+		log.info("[StockSlot] 商品 {} 合并槽位，库存 {}", productId, total);
+	}
+
+	/**
+	 * 刷新热点商品列表；拿到 redis 锁的节点再把变化了的槽位库存之和回写到 mall_product.stock
+	 */
+	public synchronized void sync() {
+		List<ProductStockSlot> summaries = productStockSlotMapper.selectSummary();
+		Map<Integer, Integer> counts = new HashMap<>();
+		for (ProductStockSlot summary : summaries) {
+			counts.put(summary.getProductId(), summary.getSlot());
+		}
+		slotCounts = counts;
+
+		String token = UUID.randomUUID().toString();
+		if (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(
+				SYNC_LOCK_REDIS_KEY, token, SYNC_LOCK_SECONDS, TimeUnit.SECONDS))) {
+			return;
+		}
+		try {
+			Map<Integer, Integer> totals = new HashMap<>();
+			for (ProductStockSlot summary : summaries) {
+				Integer productId = summary.getProductId();
+				totals.put(productId, summary.getStock());
+				//本节点记录的值只用于少发 UPDATE；是否真的变化以 mysql 中的值为准，未变化时不更新 update_time
+				if (!summary.getStock().equals(lastTotals.get(productId))
+						&& productMapper.updateStockIfChanged(productId, summary.getStock()) > 0) {
+					productCache.evictStock(productId);
+				}
+			}
+			lastTotals = totals;
+		} finally {
+			redisTemplate.execute(lockReleaseScript, Collections.singletonList(SYNC_LOCK_REDIS_KEY), token);
+		}
+	}
+
+	/**
+	 * 热点商品 mall_product_stock_slot 中有记录；本节点的列表最多落后 SYNC_INTERVAL_SECONDS
+	 */
+	public boolean isSlotted(Integer productId) {
+		return slotCounts.containsKey(productId);
+	}
+
+	private void syncAfterCommit() {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					sync();
+				}
+			});
+		}
+	}
+}
@@ -1,7 +1,7 @@
 package com.mall.service.impl;
 
-import com.google.gson.Gson;
-import com.mall.dao.ProductMapper;
+import com.mall.codec.CartCodec;
+import com.mall.cache.ProductCache;
 import com.mall.enums.ProductStatusEnum;
 import com.mall.enums.ResponseEnum;
 import com.mall.form.CartAddForm;
@@ -9,41 +9,81 @@ import com.mall.form.CartUpdateForm;
 import com.mall.pojo.Cart;
 import com.mall.pojo.Product;
 import com.mall.service.ICartService;
+import com.mall.vo.CartChangeVo;
 import com.mall.vo.CartProductVo;
 import com.mall.vo.CartVo;
 import com.mall.vo.ResponseVo;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.HashOperations;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
-import org.springframework.util.StringUtils;
+import org.springframework.util.CollectionUtils;
 
+import javax.annotation.Resource;
 import java.math.BigDecimal;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
- *此处redis存储Hash数据：key = userid、 field = productid、 value 是 Cart对象
+ *此处redis存储Hash数据：key = userid、 field = productid、 value 是 Cart对象（由 CartCodec 编码）
  */
+@Slf4j
 @Service
 public class CartServiceImpl implements ICartService {
 
 	private final static String CART_REDIS_KEY_TEMPLATE = "cart_%d";
 
+	/**
+	 * 购物车汇总：quantity 商品总数量、selected 选中行数、lines 行数
+	 * 由 scripts/cart_*.lua 在每次修改购物车时原子维护
+	 */
+	private final static String CART_SUMMARY_REDIS_KEY_TEMPLATE = "cart_sum_%d";
+
 	@Autowired
-	private ProductMapper productMapper;
+	private ProductCache productCache;
 
 	@Autowired
 	private StringRedisTemplate redisTemplate;
 
-	private Gson gson = new Gson();
+	@Resource
+	private RedisScript<Long> cartAddScript;
+
+	@Resource
+	private RedisScript<Long> cartUpdateScript;
+
+	@Resource
+	private RedisScript<Long> cartDeleteScript;
+
+	@Resource
+	private RedisScript<Long> cartSelectAllScript;
+
+	@Resource
+	private RedisScript<List> cartSumScript;
+
+	@Autowired
+	private CartCodec cartCodec;
 
 	@Override
 	public ResponseVo<CartVo> add(Integer uid, CartAddForm form) {
+		return add(uid, form, product -> list(uid));
+	}
+
+	@Override
+	public ResponseVo<CartChangeVo> addLite(Integer uid, CartAddForm form) {
+		return add(uid, form, product -> change(uid, product.getId(), product));
+	}
+
+	/**
+	 * @param view 加购成功后构造返回内容
+	 */
+	private <T> ResponseVo<T> add(Integer uid, CartAddForm form, Function<Product, ResponseVo<T>> view) {
 		Integer quantity = 1;
 
-		Product product = productMapper.selectByPrimaryKey(form.getProductId());
+		Product product = productCache.get(form.getProductId());
 
 		//商品是否存在
 		if (product == null) {
@@ -68,27 +108,13 @@ public class CartServiceImpl implements ICartService {
 		//third String： Hash value
 		//相比于存储List，Hash无需遍历，找到Cart下目标商品
 		//value不存product对象，有些属性一直在变（价格），存cart
-		HashOperations<String, String, String> opsForHash = redisTemplate.opsForHash();
-		String redisKey  = String.format(CART_REDIS_KEY_TEMPLATE, uid);
-
-		Cart cart;
-
-		//读取redis中目标cart的目标product(输入key，Hashkey)
-		String value = opsForHash.get(redisKey, String.valueOf(product.getId()));
-		if (StringUtils.isEmpty(value)) {
-			//没有该商品, 新增
-			cart = new Cart(product.getId(), quantity, form.getSelected());
-		}else {
-			//已经有了，数量+1
-			cart = gson.fromJson(value, Cart.class);
-			cart.setQuantity(cart.getQuantity() + quantity);
-		}
-
-		opsForHash.put(redisKey,
+		//数量+1 / 新增 在redis端用lua原子完成，一次往返，并发加购不会丢失更新
+		redisTemplate.execute(cartAddScript, cartKeys(uid),
 				String.valueOf(product.getId()),
-				gson.toJson(cart));
+				String.valueOf(quantity),
+				String.valueOf(form.getSelected()));
 
-		return list(uid);
+		return view.apply(product);
 	}
 
 	@Override
@@ -101,30 +127,24 @@ public class CartServiceImpl implements ICartService {
 
 		boolean selectAll = true;
 		Integer cartTotalQuantity = 0;
+		int selectedLines = 0;
 		BigDecimal cartTotalPrice = BigDecimal.ZERO;
 		CartVo cartVo = new CartVo();
 		List<CartProductVo> cartProductVoList = new ArrayList<>();
+
+		//不在for循环内查mysql，先收集productId，批量从缓存取，未命中的用in一次性查出
+		Map<Integer, Product> productMap = productCache.getAll(entries.keySet().stream()
+				.map(Integer::valueOf)
+				.collect(Collectors.toSet()));
+
 		for (Map.Entry<String, String> entry : entries.entrySet()) {
 			Integer productId = Integer.valueOf(entry.getKey());
 
-			Cart cart = gson.fromJson(entry.getValue(), Cart.class);
-
+			Cart cart = cartCodec.decode(productId, entry.getValue());
 
-			//不应该在for循环内查mysql数据，耗时太高
-			//TODO 需要优化，使用mysql里的in
-			Product product = productMapper.selectByPrimaryKey(productId);
+			Product product = productMap.get(productId);
 			if (product != null) {
-				CartProductVo cartProductVo = new CartProductVo(productId,
-						cart.getQuantity(),
-						product.getName(),
-						product.getSubtitle(),
-						product.getMainImage(),
-						product.getPrice(),
-						product.getStatus(),
-						product.getPrice().multiply(BigDecimal.valueOf(cart.getQuantity())),
-						product.getStock(),
-						cart.getProductSelected()
-				);
+				CartProductVo cartProductVo = buildCartProductVo(cart, product);
 				cartProductVoList.add(cartProductVo);
 
 				if (!cart.getProductSelected()) {
@@ -138,6 +158,18 @@ public class CartServiceImpl implements ICartService {
 			}
 
 			cartTotalQuantity += cart.getQuantity();
+			if (cart.getProductSelected()) {
+				selectedLines++;
+			}
+		}
+
+		//列表已全量读取购物车，顺带核对汇总：ensure_summary 只能发现行数不一致，数量、选中行数的漂移在这里修复
+		List<Long> summary = summary(uid, false);
+		if (summary.get(0) != cartTotalQuantity.longValue() || summary.get(1) != selectedLines
+				|| summary.get(2) != entries.size()) {
+			log.warn("[Cart] uid={} 购物车汇总与购物车不一致，重建 summary={} quantity={} selected={} lines={}",
+					uid, summary, cartTotalQuantity, selectedLines, entries.size());
+			reconcileSummary(uid);
 		}
 
 		//有一个没有选中，就不叫全选
@@ -150,82 +182,154 @@ public class CartServiceImpl implements ICartService {
 
 	@Override
 	public ResponseVo<CartVo> update(Integer uid, Integer productId, CartUpdateForm form) {
-		HashOperations<String, String, String> opsForHash = redisTemplate.opsForHash();
-		String redisKey  = String.format(CART_REDIS_KEY_TEMPLATE, uid);
+		return update(uid, productId, form, () -> list(uid));
+	}
+
+	@Override
+	public ResponseVo<CartChangeVo> updateLite(Integer uid, Integer productId, CartUpdateForm form) {
+		return update(uid, productId, form,
+				() -> change(uid, productId, productCache.get(productId)));
+	}
 
-		String value = opsForHash.get(redisKey, String.valueOf(productId));
-		if (StringUtils.isEmpty(value)) {
+	private <T> ResponseVo<T> update(Integer uid, Integer productId, CartUpdateForm form,
+									 Supplier<ResponseVo<T>> view) {
+		//空串表示该字段不修改
+		String quantity = form.getQuantity() != null && form.getQuantity() >= 0
+				? String.valueOf(form.getQuantity()) : "";
+		String selected = form.getSelected() != null
+				? String.valueOf(form.getSelected()) : "";
+
+		Long row = redisTemplate.execute(cartUpdateScript, cartKeys(uid),
+				String.valueOf(productId), quantity, selected);
+		if (row == null || row == 0) {
 			//没有该商品, 报错
 			return ResponseVo.error(ResponseEnum.CART_PRODUCT_NOT_EXIST);
 		}
 
-		//已经有了，修改内容
-		Cart cart = gson.fromJson(value, Cart.class);
-		if (form.getQuantity() != null
-				&& form.getQuantity() >= 0) {
-			cart.setQuantity(form.getQuantity());
-		}
-		if (form.getSelected() != null) {
-			cart.setProductSelected(form.getSelected());
-		}
-
-		opsForHash.put(redisKey, String.valueOf(productId), gson.toJson(cart));
-		return list(uid);
+		return view.get();
 	}
 
 	@Override
 	public ResponseVo<CartVo> delete(Integer uid, Integer productId) {
-		HashOperations<String, String, String> opsForHash = redisTemplate.opsForHash();
-		String redisKey  = String.format(CART_REDIS_KEY_TEMPLATE, uid);
+		return delete(uid, productId, () -> list(uid));
+	}
 
-		String value = opsForHash.get(redisKey, String.valueOf(productId));
-		if (StringUtils.isEmpty(value)) {
+	@Override
+	public ResponseVo<CartChangeVo> deleteLite(Integer uid, Integer productId) {
+		return delete(uid, productId, () -> change(uid, productId, null));
+	}
+
+	private <T> ResponseVo<T> delete(Integer uid, Integer productId, Supplier<ResponseVo<T>> view) {
+		//delete对应hashkey-hashvalue对，同时扣减汇总
+		//若执行后，key对应value为null，key-value自动删除
+		Long row = redisTemplate.execute(cartDeleteScript, cartKeys(uid),
+				String.valueOf(productId));
+		if (row == null || row == 0) {
 			//没有该商品, 报错
 			return ResponseVo.error(ResponseEnum.CART_PRODUCT_NOT_EXIST);
 		}
+		return view.get();
+	}
 
-		//delete对应hashkey-hashvalue对
-		//若执行后，key对应value为null，key-value自动删除
-		opsForHash.delete(redisKey, String.valueOf(productId));
+	@Override
+	public ResponseVo<CartVo> selectAll(Integer uid) {
+		//在redis端一次改写所有商品的选中状态
+		redisTemplate.execute(cartSelectAllScript, cartKeys(uid), "1");
 		return list(uid);
 	}
 
 	@Override
-	public ResponseVo<CartVo> selectAll(Integer uid) {
-		HashOperations<String, String, String> opsForHash = redisTemplate.opsForHash();
-		String redisKey  = String.format(CART_REDIS_KEY_TEMPLATE, uid);
+	public ResponseVo<CartVo> unSelectAll(Integer uid) {
+		redisTemplate.execute(cartSelectAllScript, cartKeys(uid), "0");
+		return list(uid);
+	}
 
-		for (Cart cart : listForCart(uid)) {
-			cart.setProductSelected(true);
-			opsForHash.put(redisKey,
-					String.valueOf(cart.getProductId()),
-					gson.toJson(cart));
+	@Override
+	public void deleteBatch(Integer uid, Set<Integer> productIdSet) {
+		if (CollectionUtils.isEmpty(productIdSet)) {
+			return;
 		}
+		//一次脚本调用删除多个hashkey，不存在的field会被忽略
+		String[] hashKeys = productIdSet.stream()
+				.map(String::valueOf)
+				.toArray(String[]::new);
+		redisTemplate.execute(cartDeleteScript, cartKeys(uid), (Object[]) hashKeys);
+	}
 
-		return list(uid);
+	@Override
+	public ResponseVo<Integer> sum(Integer uid) {
+		//只读汇总hash，不再全量解析购物车
+		return ResponseVo.success(summary(uid, false).get(0).intValue());
 	}
 
 	@Override
-	public ResponseVo<CartVo> unSelectAll(Integer uid) {
-		HashOperations<String, String, String> opsForHash = redisTemplate.opsForHash();
-		String redisKey  = String.format(CART_REDIS_KEY_TEMPLATE, uid);
+	public void reconcileSummary(Integer uid) {
+		summary(uid, true);
+	}
 
+	/**
+	 * 读取购物车汇总 {quantity, selected, lines}
+	 * @param rebuild true：按购物车全量重建后再返回
+	 */
+	@SuppressWarnings("unchecked")
+	private List<Long> summary(Integer uid, boolean rebuild) {
+		return (List<Long>) redisTemplate.execute(cartSumScript, cartKeys(uid), rebuild ? "1" : "0");
+	}
+
+	/**
+	 * 精简返回：本次修改的一行 + 汇总，不构建完整的 CartVo
+	 * 总价按选中行与缓存中的当前价格计算，不记在汇总hash里：改价后汇总中的总价会一直是旧的
+	 * @param product 为null时（已删除/商品不存在）不返回商品行
+	 */
+	private ResponseVo<CartChangeVo> change(Integer uid, Integer productId, Product product) {
+		CartChangeVo cartChangeVo = new CartChangeVo();
+		List<Cart> selectedList = new ArrayList<>();
 		for (Cart cart : listForCart(uid)) {
-			cart.setProductSelected(false);
-			opsForHash.put(redisKey,
-					String.valueOf(cart.getProductId()),
-					gson.toJson(cart));
+			if (product != null && cart.getProductId().equals(productId)) {
+				cartChangeVo.setCartProductVo(buildCartProductVo(cart, product));
+			}
+			if (cart.getProductSelected()) {
+				selectedList.add(cart);
+			}
 		}
 
-		return list(uid);
+		//与 list 一致：只计算选中的、商品仍存在的行
+		Map<Integer, Product> productMap = productCache.getAll(selectedList.stream()
+				.map(Cart::getProductId)
+				.collect(Collectors.toSet()));
+		BigDecimal cartTotalPrice = BigDecimal.ZERO;
+		for (Cart cart : selectedList) {
+			Product selected = productMap.get(cart.getProductId());
+			if (selected != null) {
+				cartTotalPrice = cartTotalPrice.add(selected.getPrice().multiply(BigDecimal.valueOf(cart.getQuantity())));
+			}
+		}
+		cartChangeVo.setCartTotalPrice(cartTotalPrice);
+
+		List<Long> summary = summary(uid, false);
+		cartChangeVo.setCartTotalQuantity(summary.get(0).intValue());
+		//选中行数 == 行数 即全选
+		cartChangeVo.setSelectedAll(summary.get(1).equals(summary.get(2)));
+		return ResponseVo.success(cartChangeVo);
 	}
 
-	@Override
-	public ResponseVo<Integer> sum(Integer uid) {
-		Integer sum = listForCart(uid).stream()
-				.map(Cart::getQuantity)
-				.reduce(0, Integer::sum);
-		return ResponseVo.success(sum);
+	private CartProductVo buildCartProductVo(Cart cart, Product product) {
+		return new CartProductVo(cart.getProductId(),
+				cart.getQuantity(),
+				product.getName(),
+				product.getSubtitle(),
+				product.getMainImage(),
+				product.getPrice(),
+				product.getStatus(),
+				product.getPrice().multiply(BigDecimal.valueOf(cart.getQuantity())),
+				product.getStock(),
+				cart.getProductSelected()
+		);
+	}
+
+	private List<String> cartKeys(Integer uid) {
+		return Arrays.asList(String.format(CART_REDIS_KEY_TEMPLATE, uid),
+				String.format(CART_SUMMARY_REDIS_KEY_TEMPLATE, uid));
 	}
 
 	public List<Cart> listForCart(Integer uid) {
@@ -235,7 +339,7 @@ public class CartServiceImpl implements ICartService {
 
 		List<Cart> cartList = new ArrayList<>();
 		for (Map.Entry<String, String> entry : entries.entrySet()) {
-			cartList.add(gson.fromJson(entry.getValue(), Cart.class));
+			cartList.add(cartCodec.decode(Integer.valueOf(entry.getKey()), entry.getValue()));
 		}
 
 		return cartList;
@@ -1,6 +1,6 @@
 package com.mall.service.impl;
 
-import com.mall.dao.CategoryMapper;
+import com.mall.cache.CategoryIndex;
 import com.mall.pojo.Category;
 import com.mall.service.ICategoryService;
 import com.mall.vo.CategoryVo;
@@ -9,11 +9,7 @@ import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.*;
 
 import static com.mall.consts.MallConst.ROOT_PARENT_ID;
 
@@ -22,78 +18,85 @@ import static com.mall.consts.MallConst.ROOT_PARENT_ID;
 public class CategoryServiceImpl implements ICategoryService {
 
 	@Autowired
-	private CategoryMapper categoryMapper;
+	private CategoryIndex categoryIndex;
+
+	/**
+	 * 上一次构建类目树所用的类目列表，索引刷新后引用会变
+	 */
+	private volatile List<Category> treeSource;
+
+	private volatile ResponseVo<List<CategoryVo>> treeResponse;
 
 	/**
 	 * 耗时：http(请求微信api) > 磁盘 > 内存
 	 * mysql(内网+磁盘)
+	 * 类目树只在类目索引刷新后重建一次，其余请求直接返回同一个结果（只读）
 	 * @return
 	 */
 	@Override
 	public ResponseVo<List<CategoryVo>> selectAll() {
+		//一次性取出所有类别对象（内存索引，不查库）
+		List<Category> categories = categoryIndex.categories();
+		ResponseVo<List<CategoryVo>> response = treeResponse;
+		if (response != null && treeSource == categories) {
+			return response;
+		}
 
-		//一次性取出所有类别对象
-		List<Category> categories = categoryMapper.selectAll();
-		//查出parent_id=0
-//		for (Category category : categories) {
-//			if (category.getParentId().equals(ROOT_PARENT_ID)) {
-//				CategoryVo categoryVo = new CategoryVo();
-//				BeanUtils.copyProperties(category, categoryVo);
-//				categoryVoList.add(categoryVo);
-//			}
-//		}
-
-		//lambda + stream
-		//对categories过滤出根类别（parentId = 0）
-		//倒序排入categoryVoList中，得到第一层
-		List<CategoryVo> categoryVoList = categories.stream()
-				.filter(e -> e.getParentId().equals(ROOT_PARENT_ID))
-				.map(this::category2CategoryVo)
-				.sorted(Comparator.comparing(CategoryVo::getSortOrder).reversed())
-				.collect(Collectors.toList());
-
-		findSubCategory(categoryVoList, categories);
-
-		return ResponseVo.success(categoryVoList);
+		synchronized (this) {
+			if (treeResponse == null || treeSource != categories) {
+				treeResponse = ResponseVo.success(buildTree(categories));
+				treeSource = categories;
+			}
+			return treeResponse;
+		}
 	}
 
 	@Override
 	public void findSubCategoryId(Integer id, Set<Integer> resultSet) {
-		List<Category> categories = categoryMapper.selectAll();
-		findSubCategoryId(id, resultSet, categories);
+		//子孙id在索引构建时已预先算好，这里只是一次hash查找
+		resultSet.addAll(categoryIndex.descendantIds(id));
 	}
 
-	//递归方法 将本类目及其所有子类目id放进集合
-	private void findSubCategoryId(Integer id, Set<Integer> resultSet, List<Category> categories) {
+	@Override
+	public String version() {
+		return categoryIndex.version();
+	}
+
+	@Override
+	public long lastModified() {
+		return categoryIndex.lastModified();
+	}
+
+	@Override
+	public void refresh() {
+		categoryIndex.refresh();
+	}
+
+	/**
+	 * 线性构建类目树：先按 parentId 分组一次，再自顶向下挂子节点，每个子列表只排序一次
+	 * 同级按 sortOrder 倒序，叶子节点的 subCategories 为空列表
+	 */
+	private List<CategoryVo> buildTree(List<Category> categories) {
+		Map<Integer, List<CategoryVo>> childrenMap = new HashMap<>();
 		for (Category category : categories) {
-			if (category.getParentId().equals(id)) {
-				resultSet.add(category.getId());
-				findSubCategoryId(category.getId(), resultSet, categories);
-			}
+			childrenMap.computeIfAbsent(category.getParentId(), k -> new ArrayList<>())
+					.add(category2CategoryVo(category));
 		}
-	}
 
-	//递归
-	private void findSubCategory(List<CategoryVo> categoryVoList, List<Category> categories) {
-		for (CategoryVo categoryVo : categoryVoList) {
-			List<CategoryVo> subCategoryVoList = new ArrayList<>();
-
-			//对每个父 CategoryVo，扫描全量 categories；
-			//凡是 category.parentId == 父vo.id 的就转成 CategoryVo 加进 subCategoryVoList；
-			for (Category category : categories) {
-				//如果查到内容，设置subCategory, 继续往下查
-				if (categoryVo.getId().equals(category.getParentId())) {
-					CategoryVo subCategoryVo = category2CategoryVo(category);
-					subCategoryVoList.add(subCategoryVo);
-				}
-
-				subCategoryVoList.sort(Comparator.comparing(CategoryVo::getSortOrder).reversed());
-				categoryVo.setSubCategories(subCategoryVoList);
-
-				//递归对这批子节点再找它们的子节点
-				findSubCategory(subCategoryVoList, categories);
-			}
+		Comparator<CategoryVo> bySortOrderDesc = Comparator.comparing(CategoryVo::getSortOrder).reversed();
+		List<CategoryVo> categoryVoList = childrenMap.getOrDefault(ROOT_PARENT_ID, new ArrayList<>());
+		categoryVoList.sort(bySortOrderDesc);
+
+		//用栈代替递归，避免类目层级很深时栈溢出
+		Deque<CategoryVo> stack = new ArrayDeque<>(categoryVoList);
+		while (!stack.isEmpty()) {
+			CategoryVo categoryVo = stack.pop();
+			List<CategoryVo> subCategoryVoList = childrenMap.getOrDefault(categoryVo.getId(), new ArrayList<>());
+			subCategoryVoList.sort(bySortOrderDesc);
+			categoryVo.setSubCategories(subCategoryVoList);
+			stack.addAll(subCategoryVoList);
 		}
+		return categoryVoList;
 	}
 
 	private CategoryVo category2CategoryVo(Category category) {
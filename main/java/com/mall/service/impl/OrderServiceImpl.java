@@ -1,28 +1,38 @@
 package com.mall.service.impl;
 
-import com.github.pagehelper.PageHelper;
 import com.github.pagehelper.PageInfo;
+import com.mall.cache.ProductSortIndex;
+import com.mall.cache.StockReservation;
 import com.mall.dao.OrderItemMapper;
 import com.mall.dao.OrderMapper;
 import com.mall.dao.ProductMapper;
 import com.mall.dao.ShippingMapper;
 import com.mall.enums.OrderStatusEnum;
+import com.mall.enums.PageCountModeEnum;
 import com.mall.enums.PaymentTypeEnum;
 import com.mall.enums.ProductStatusEnum;
 import com.mall.enums.ResponseEnum;
 import com.mall.pojo.*;
 import com.mall.service.ICartService;
 import com.mall.service.IOrderService;
+import com.mall.service.OrderNoGenerator;
 import com.mall.service.OrderTimeoutService;
+import com.mall.service.PageQueryService;
+import com.mall.service.StockSlotService;
 import com.mall.vo.OrderItemVo;
 import com.mall.vo.OrderVo;
 import com.mall.vo.ResponseVo;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.CollectionUtils;
 
+import javax.annotation.PostConstruct;
 import java.math.BigDecimal;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -49,41 +59,95 @@ public class OrderServiceImpl implements IOrderService {
 	@Autowired
 	private OrderTimeoutService orderTimeoutService;
 
+	@Autowired
+	private PageQueryService pageQueryService;
+
+	@Autowired
+	private ProductSortIndex productSortIndex;
+
+	@Autowired
+	private OrderNoGenerator orderNoGenerator;
+
+	@Autowired
+	private StockReservation stockReservation;
+
+	@Autowired
+	private StockSlotService stockSlotService;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	/** 下单事务：默认隔离级别 */
+	private TransactionTemplate defaultTransaction;
+
+	/** 下单事务：含热点商品时用 READ COMMITTED */
+	private TransactionTemplate readCommittedTransaction;
+
+	@PostConstruct
+	public void init() {
+		defaultTransaction = new TransactionTemplate(transactionManager);
+		readCommittedTransaction = new TransactionTemplate(transactionManager);
+		readCommittedTransaction.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+	}
+
 	//在前端页面进入下单页时就生成唯一的orderNo，并在请求create接口时传入
 	//配合mysql对order_no建立唯一索引。可以保证下单的幂等性
 	//防止超时抖动、网络重传
 	@Override
-	@Transactional
 	public ResponseVo<OrderVo> create(Integer uid, Integer shippingId) {
-		//收货地址校验（总之要查出来的）
-		Shipping shipping = shippingMapper.selectByUidAndShippingId(uid, shippingId);
-		if (shipping == null) {
-			return ResponseVo.error(ResponseEnum.SHIPPING_NOT_EXIST);
-		}
+		return create(uid, shippingId, orderNoGenerator.nextOrderNo(), cartService.listForCart(uid));
+	}
 
-		//获取购物车，校验（是否有商品、库存）
-		List<Cart> cartList = cartService.listForCart(uid).stream()
+	//只有包含热点商品的下单用 READ COMMITTED：分槽扣减时条件不满足的 UPDATE 不持有行锁，可以从随机槽位开始尝试，见 StockSlotService
+	//其余下单仍用默认隔离级别
+	@Override
+	public ResponseVo<OrderVo> create(Integer uid, Integer shippingId, Long orderNo, List<Cart> cartLines) {
+		boolean slotted = cartLines.stream()
+				.anyMatch(cart -> cart.getProductSelected() && stockSlotService.isSlotted(cart.getProductId()));
+		TransactionTemplate transaction = slotted ? readCommittedTransaction : defaultTransaction;
+		return transaction.execute(status -> create(uid, shippingId, orderNo, cartLines, status));
+	}
+
+	private ResponseVo<OrderVo> create(Integer uid, Integer shippingId, Long orderNo, List<Cart> cartLines,
+									   TransactionStatus status) {
+		//校验购物车（是否有商品、库存）
+		//按商品id升序，之后扣库存时各事务按相同顺序对行加锁，重叠的购物车不会互相死锁
+		List<Cart> cartList = cartLines.stream()
 				.filter(Cart::getProductSelected)
+				.sorted(Comparator.comparing(Cart::getProductId))
 				.collect(Collectors.toList());
 		if (CollectionUtils.isEmpty(cartList)) {
 			return ResponseVo.error(ResponseEnum.CART_SELECTED_IS_EMPTY);
 		}
 
+		//先在redis预占库存，已售罄直接拒绝，不查mysql；事务回滚或下单失败时自动归还
+		Map<Integer, Integer> quantities = cartList.stream()
+				.collect(Collectors.toMap(Cart::getProductId, Cart::getQuantity));
+		StockReservation.Reservation reservation = stockReservation.reserve(quantities);
+		if (reservation.getSoldOutProductId() != null) {
+			return ResponseVo.error(ResponseEnum.PROODUCT_STOCK_ERROR,
+					"库存不足. productId = " + reservation.getSoldOutProductId());
+		}
+
+		//收货地址校验（总之要查出来的）
+		Shipping shipping = shippingMapper.selectByUidAndShippingId(uid, shippingId);
+		if (shipping == null) {
+			return ResponseVo.error(ResponseEnum.SHIPPING_NOT_EXIST);
+		}
+
 		//不使用for循环内查询mysql。耗时严重
 		//获取cartList里的productIds
 		//获取productIds集合，通过selectByProductIdSet一次性查询
 		Set<Integer> productIdSet = cartList.stream()
 				.map(Cart::getProductId)
 				.collect(Collectors.toSet());
-		//这里为了防止超卖，需要在查询product的sql语句后加FOR UPDATE
-		//从而自动加上行级排他锁
+		//这里只是快照读，不加锁；防止超卖靠下面 deductStock 的条件更新
 		List<Product> productList = productMapper.selectByProductIdSet(productIdSet);
 		Map<Integer, Product> map  = productList.stream()
 				.collect(Collectors.toMap(Product::getId, product -> product));
 
 		List<OrderItem> orderItemList = new ArrayList<>();
-		Long orderNo = generateOrderNo();
-		//对每个cart对象 与 对应 product对象 逐个校验
+		//对每个cart对象 与 对应 product对象 逐个校验，全部通过后才开始写库
 		for (Cart cart : cartList) {
 
 			Product product = map.get(cart.getProductId());
@@ -98,7 +162,7 @@ public class OrderServiceImpl implements IOrderService {
 						"商品不是在售状态. " + product.getName());
 			}
 
-			//库存是否充足
+			//库存是否充足（快照，提前拦截明显不足的情况）
 			if (product.getStock() < cart.getQuantity()) {
 				return ResponseVo.error(ResponseEnum.PROODUCT_STOCK_ERROR,
 						"库存不正确. " + product.getName());
@@ -106,12 +170,16 @@ public class OrderServiceImpl implements IOrderService {
 
 			OrderItem orderItem = buildOrderItem(uid, orderNo, cart.getQuantity(), product);
 			orderItemList.add(orderItem);
+		}
 
-			//减库存， update语句隐示加排他锁
-			product.setStock(product.getStock() - cart.getQuantity());
-			int row = productMapper.updateByPrimaryKeySelective(product);
-			if (row <= 0) {
-				return ResponseVo.error(ResponseEnum.ERROR);
+		//减库存：UPDATE ... WHERE stock >= quantity，行锁只持有到事务结束，按商品id升序执行
+		//影响0行说明并发下单后库存已不足，回滚前面已扣的库存
+		//热点商品由 StockSlotService 扣减分槽库存
+		for (OrderItem orderItem : orderItemList) {
+			if (!stockSlotService.deduct(orderItem.getProductId(), orderItem.getQuantity())) {
+				status.setRollbackOnly();
+				return ResponseVo.error(ResponseEnum.PROODUCT_STOCK_ERROR,
+						"库存不正确. " + orderItem.getProductName());
 			}
 		}
 
@@ -122,22 +190,23 @@ public class OrderServiceImpl implements IOrderService {
 
 		int rowForOrder = orderMapper.insertSelective(order);
 		if (rowForOrder <= 0) {
+			status.setRollbackOnly();
 			return ResponseVo.error(ResponseEnum.ERROR);
 		}
 
 		int rowForOrderItem = orderItemMapper.batchInsert(orderItemList);
 		if (rowForOrderItem <= 0) {
+			status.setRollbackOnly();
 			return ResponseVo.error(ResponseEnum.ERROR);
 		}
 
-		//更新购物车（删除订单中的商品）
+		//更新购物车（删除订单中的商品），一次HDEL批量删除
 		//Redis有事务(打包命令)，不能回滚
-		for (Cart cart : cartList) {
-			cartService.delete(uid, cart.getProductId());
-		}
+		cartService.deleteBatch(uid, productIdSet);
 
 		//若48h后未支付成功，超时自动取消订单 + 回补库存
 		orderTimeoutService.scheduleCancel(order);
+		reservation.confirm();
 
 		//构造orderVo
 		OrderVo orderVo = buildOrderVo(order, orderItemList, shipping);
@@ -145,9 +214,14 @@ public class OrderServiceImpl implements IOrderService {
 	}
 
 	@Override
-	public ResponseVo<PageInfo> list(Integer uid, Integer pageNum, Integer pageSize) {
-		PageHelper.startPage(pageNum, pageSize);
-		List<Order> orderList = orderMapper.selectByUid(uid);
+	public ResponseVo<PageInfo> list(Integer uid, Integer pageNum, Integer pageSize, PageCountModeEnum countMode) {
+		PageInfo<Order> orderPage = pageQueryService.page(countMode, "order:" + uid,
+				pageNum, pageSize, () -> orderMapper.selectByUid(uid));
+		List<Order> orderList = orderPage.getList();
+		//超出最后一页时没有订单，下面的 in 查询条件为空会查出全表，直接返回
+		if (orderList.isEmpty()) {
+			return ResponseVo.success(orderPage);
+		}
 
 		Set<Long> orderNoSet = orderList.stream()
 				.map(Order::getOrderNo)
@@ -170,7 +244,7 @@ public class OrderServiceImpl implements IOrderService {
 					shippingMap.get(order.getShippingId()));
 			orderVoList.add(orderVo);
 		}
-		PageInfo pageInfo = new PageInfo<>(orderList);
+		PageInfo pageInfo = orderPage;
 		pageInfo.setList(orderVoList);
 
 		return ResponseVo.success(pageInfo);
@@ -214,8 +288,10 @@ public class OrderServiceImpl implements IOrderService {
 		Set<Long> one = Collections.singleton(orderNo);
 		List<OrderItem> items = orderItemMapper.selectByOrderNoSet(one);
 		for (OrderItem it : items) {
-			productMapper.addStock(it.getProductId(), it.getQuantity());
+			stockSlotService.add(it.getProductId(), it.getQuantity());
 		}
+		stockReservation.restore(items.stream()
+				.collect(Collectors.toMap(OrderItem::getProductId, OrderItem::getQuantity, Integer::sum)));
 		return ResponseVo.success();
 	}
 
@@ -240,6 +316,7 @@ public class OrderServiceImpl implements IOrderService {
 		int n = orderMapper.updateToPaidIfNoPayWithVersion(orderNo, snapVersion, now);
 		if (n == 1) {
 			// 正常路径：在我们读到的那一版上把未付款置为已付款
+			addSales(orderNo);
 			return;
 		}
 
@@ -263,6 +340,7 @@ public class OrderServiceImpl implements IOrderService {
 			int m = orderMapper.reviveCanceledToPaidWithVersion(orderNo, cur.getUpdateTime(), now);
 			if (m == 1) {
 				// 复活成功
+				addSales(orderNo);
 				return;
 			}
 			// 版本不匹配 => 并发又动了，避免脏写；这里给出明确错误（也可仅记录日志）
@@ -273,6 +351,13 @@ public class OrderServiceImpl implements IOrderService {
 		throw new RuntimeException(ResponseEnum.ORDER_STATUS_ERROR.getDesc() + "订单id:" + orderNo);
 	}
 
+	/**
+	 * 支付成功后累加商品销量（排序索引），事务提交后执行
+	 */
+	private void addSales(Long orderNo) {
+		productSortIndex.onPaid(orderItemMapper.selectByOrderNoSet(Collections.singleton(orderNo)));
+	}
+
 	private OrderVo buildOrderVo(Order order, List<OrderItem> orderItemList, Shipping shipping) {
 		OrderVo orderVo = new OrderVo();
 		BeanUtils.copyProperties(order, orderVo);
@@ -316,14 +401,6 @@ public class OrderServiceImpl implements IOrderService {
 		return order;
 	}
 
-	/**
-	 * 企业级：分布式唯一id/主键
-	 * @return
-	 */
-	private Long generateOrderNo() {
-		return System.currentTimeMillis() + new Random().nextInt(999);
-	}
-
 	private OrderItem buildOrderItem(Integer uid, Long orderNo, Integer quantity, Product product) {
 		OrderItem item = new OrderItem();
 		item.setUserId(uid);
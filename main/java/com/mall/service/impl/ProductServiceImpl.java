@@ -1,25 +1,44 @@
 package com.mall.service.impl;
 
-import com.github.pagehelper.PageHelper;
 import com.github.pagehelper.PageInfo;
+import com.mall.cache.ProductCache;
+import com.mall.cache.ProductListCache;
+import com.mall.cache.ProductSortIndex;
 import com.mall.dao.ProductMapper;
+import com.mall.enums.PageCountModeEnum;
+import com.mall.enums.ProductSortEnum;
+import com.mall.enums.ProductStatusEnum;
+import com.mall.enums.ResponseEnum;
+import com.mall.form.ProductForm;
 import com.mall.pojo.Product;
+import com.mall.search.ProductFacetIndex;
+import com.mall.search.ProductSearchIndex;
+import com.mall.search.ProductSuggester;
 import com.mall.service.ICategoryService;
 import com.mall.service.IProductService;
+import com.mall.service.PageQueryService;
+import com.mall.vo.ProductCursorVo;
 import com.mall.vo.ProductDetailVo;
+import com.mall.vo.ProductFilterVo;
+import com.mall.vo.ProductVersionVo;
 import com.mall.vo.ProductVo;
 import com.mall.vo.ResponseVo;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.StringUtils;
 
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
 import java.util.stream.Collectors;
 
 import static com.mall.enums.ProductStatusEnum.*;
+import static com.mall.enums.ResponseEnum.PARAM_ERROR;
+import static com.mall.enums.ResponseEnum.PRODUCT_NOT_EXIST;
 import static com.mall.enums.ResponseEnum.PRODUCT_OFF_SALE_OR_DELETE;
 
 
@@ -27,45 +46,331 @@ import static com.mall.enums.ResponseEnum.PRODUCT_OFF_SALE_OR_DELETE;
 @Slf4j
 public class ProductServiceImpl implements IProductService {
 
+	private static final int MAX_PAGE_SIZE = 100;
+
+	private static final int MAX_SUGGEST_LIMIT = 20;
+
+	private static final int MAX_BATCH_SIZE = 50;
+
+	/** 排序列表遇到已下架商品时，移出索引后重取本页的次数上限 */
+	private static final int MAX_SORTED_PAGE_ATTEMPTS = 3;
+
+	/** 游标分页按类目分别取再合并的类目数上限，超过时一页要读的行数（类目数 × 页大小）已不比顺序扫描少 */
+	private static final int MAX_MERGED_SCROLL_CATEGORIES = 50;
+
 	@Autowired
 	private ICategoryService categoryService;
 
 	@Autowired
 	private ProductMapper productMapper;
 
+	@Autowired
+	private ProductCache productCache;
+
+	@Autowired
+	private PageQueryService pageQueryService;
+
+	@Autowired
+	private ProductListCache productListCache;
+
+	@Autowired
+	private ProductSearchIndex productSearchIndex;
+
+	@Autowired
+	private ProductSuggester productSuggester;
+
+	@Autowired
+	private ProductFacetIndex productFacetIndex;
+
+	@Autowired
+	private ProductSortIndex productSortIndex;
+
 	@Override
-	public ResponseVo<PageInfo> list(Integer categoryId, Integer pageNum, Integer pageSize) {
-		Set<Integer> categoryIdSet = new HashSet<>();
+	public ResponseVo<PageInfo> list(Integer categoryId, Integer pageNum, Integer pageSize,
+									 PageCountModeEnum countMode, ProductSortEnum sort) {
+		Set<Integer> categoryIdSet = categoryIdSet(categoryId);
 
-		//先收集该类目的所有子类目ID（product表的category_id都是叶子类目），再把本类目ID也放进集合里
-		if (categoryId != null) {
-			categoryService.findSubCategoryId(categoryId, categoryIdSet);
-			categoryIdSet.add(categoryId);
+		if (sort != ProductSortEnum.DEFAULT) {
+			return sortedList(categoryIdSet, pageNum, pageSize, sort);
 		}
 
-		PageHelper.startPage(pageNum, pageSize);
+		//前几页走列表缓存，命中时不查库
+		PageInfo pageInfo = productListCache.get(categoryIdSet, pageNum, pageSize, countMode,
+				() -> loadPage(categoryId, categoryIdSet, pageNum, pageSize, countMode));
+		return ResponseVo.success(pageInfo);
+	}
+
+	/**
+	 * 排序列表：从 redis 排序索引取出本页商品id，再批量从商品缓存取详情
+	 * 不查 COUNT，也不 filesort，翻页深度只影响 ZRANGE 的 O(log n)
+	 * 索引里残留已下架/删除的商品时，经mysql确认后移出索引再重取本页，后面的商品补上来，总数也一起减少
+	 */
+	private ResponseVo<PageInfo> sortedList(Set<Integer> categoryIdSet, Integer pageNum, Integer pageSize,
+											ProductSortEnum sort) {
+		if (pageNum == null || pageNum <= 0 || pageSize == null || pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+			return ResponseVo.error(PARAM_ERROR);
+		}
 
+		ProductSortIndex.SortedPage sortedPage;
+		List<Product> productList;
+		int attempts = 0;
+		while (true) {
+			sortedPage = productSortIndex.page(sort, categoryIdSet, (pageNum - 1) * pageSize, pageSize);
+			Map<Integer, Product> productMap = productCache.getAll(sortedPage.getProductIds());
+
+			//按索引顺序组装；productId -> 类目id（商品已删除时为null）
+			productList = new ArrayList<>();
+			Map<Integer, Integer> stale = new HashMap<>();
+			for (Integer productId : sortedPage.getProductIds()) {
+				Product product = productMap.get(productId);
+				if (product != null && ON_SALE.getCode().equals(product.getStatus())) {
+					productList.add(product);
+				} else {
+					stale.put(productId, product == null ? null : product.getCategoryId());
+				}
+			}
+			if (stale.isEmpty()) {
+				break;
+			}
+			//商品缓存可能比mysql旧（例如刚重新上架），以mysql为准：确实不在售的才移出索引，其余只清商品缓存
+			for (Product product : productMapper.selectByProductIdSetWithoutLock(stale.keySet())) {
+				if (ON_SALE.getCode().equals(product.getStatus())) {
+					stale.remove(product.getId());
+					productCache.evict(product.getId());
+				} else {
+					stale.put(product.getId(), product.getCategoryId());
+				}
+			}
+			if (!stale.isEmpty()) {
+				productSortIndex.remove(sort, categoryIdSet, stale);
+			}
+			if (++attempts >= MAX_SORTED_PAGE_ATTEMPTS) {
+				break;
+			}
+		}
+		return ResponseVo.success(PageQueryService.pageOf(toProductVoList(productList), pageNum, pageSize,
+				sortedPage.getTotal(), (long) pageNum * pageSize < sortedPage.getTotal()));
+	}
+
+	private PageInfo loadPage(Integer categoryId, Set<Integer> categoryIdSet,
+							  Integer pageNum, Integer pageSize, PageCountModeEnum countMode) {
 		// 根据收集到的categoryId， 从product表中筛选对应product
 		// 当categoryId = null,返回所有product
-		List<Product> productList = productMapper.selectByCategoryIdSet(categoryIdSet);
-		List<ProductVo> productVoList = productList.stream()
-				.map(e -> {
-					//避免暴露敏感字段（库存）
-					ProductVo productVo = new ProductVo();
-					BeanUtils.copyProperties(e, productVo);
-					return productVo;
-				})
-				.collect(Collectors.toList());
+		PageInfo<Product> productPage = pageQueryService.page(countMode, "product:" + categoryId,
+				pageNum, pageSize, () -> productMapper.selectByCategoryIdSet(categoryIdSet));
+		List<ProductVo> productVoList = toProductVoList(productPage.getList());
 
 		//分页包装并返回productVoList
-		PageInfo pageInfo = new PageInfo<>(productList);
+		PageInfo pageInfo = productPage;
 		pageInfo.setList(productVoList);
-		return ResponseVo.success(pageInfo);
+		return pageInfo;
+	}
+
+	/**
+	 * 游标分页：where id > 上一页最后一个id order by id limit pageSize + 1
+	 * 不做 COUNT，也不跳过 offset 行；多查的一行只用来判断是否有下一页
+	 */
+	@Override
+	public ResponseVo<ProductCursorVo> scroll(Integer categoryId, String cursor, Integer pageSize) {
+		if (pageSize == null || pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+			return ResponseVo.error(PARAM_ERROR, "pageSize 取值范围 1~" + MAX_PAGE_SIZE);
+		}
+		Integer lastId = null;
+		if (!StringUtils.isEmpty(cursor)) {
+			lastId = decodeCursor(cursor);
+			if (lastId == null) {
+				return ResponseVo.error(PARAM_ERROR, "cursor 无效");
+			}
+		}
+
+		//类目不多时按类目各取一页再合并，子树很大时沿 id 顺序扫描并过滤类目，见 mall_product_keyset_index.sql
+		Set<Integer> categoryIdSet = categoryIdSet(categoryId);
+		List<Product> productList = categoryIdSet.isEmpty() || categoryIdSet.size() > MAX_MERGED_SCROLL_CATEGORIES
+				? productMapper.selectByCategoryIdSetAfter(categoryIdSet, lastId, pageSize + 1)
+				: productMapper.selectByCategoryIdSetMergedAfter(categoryIdSet, lastId, pageSize + 1);
+		boolean hasNext = productList.size() > pageSize;
+		if (hasNext) {
+			productList = productList.subList(0, pageSize);
+		}
+
+		ProductCursorVo productCursorVo = new ProductCursorVo();
+		productCursorVo.setList(toProductVoList(productList));
+		productCursorVo.setHasNext(hasNext);
+		if (hasNext) {
+			productCursorVo.setNextCursor(encodeCursor(productList.get(productList.size() - 1).getId()));
+		}
+		return ResponseVo.success(productCursorVo);
+	}
+
+	@Override
+	public ResponseVo<PageInfo> search(String keyword, Integer categoryId, Integer pageNum, Integer pageSize) {
+		if (StringUtils.isEmpty(keyword) || pageNum == null || pageNum <= 0
+				|| pageSize == null || pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+			return ResponseVo.error(PARAM_ERROR);
+		}
+
+		//类目过滤与列表接口一致：本类目及其所有子类目
+		ProductSearchIndex.SearchResult result = productSearchIndex.search(keyword, categoryIdSet(categoryId),
+				(pageNum - 1) * pageSize, pageSize);
+		return ResponseVo.success(PageQueryService.pageOf(result.getList(), pageNum, pageSize,
+				result.getTotal(), (long) pageNum * pageSize < result.getTotal()));
+	}
+
+	@Override
+	public ResponseVo<List<String>> suggest(String prefix, Integer limit) {
+		if (limit == null || limit <= 0 || limit > MAX_SUGGEST_LIMIT) {
+			return ResponseVo.error(PARAM_ERROR, "limit 取值范围 1~" + MAX_SUGGEST_LIMIT);
+		}
+		return ResponseVo.success(productSuggester.suggest(prefix, limit));
+	}
+
+	@Override
+	public ResponseVo<ProductFilterVo> filter(Set<Integer> categoryIds, Set<Integer> priceBuckets, Boolean inStock,
+											  Integer pageNum, Integer pageSize) {
+		if (pageNum == null || pageNum <= 0 || pageSize == null || pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+			return ResponseVo.error(PARAM_ERROR);
+		}
+
+		//每个类目各自展开子类目，类目之间为 OR
+		List<Set<Integer>> categoryIdSets = new ArrayList<>();
+		if (categoryIds != null) {
+			for (Integer categoryId : categoryIds) {
+				categoryIdSets.add(categoryIdSet(categoryId));
+			}
+		}
+
+		ProductFacetIndex.FilterResult result = productFacetIndex.filter(categoryIdSets,
+				priceBuckets == null ? Collections.emptySet() : priceBuckets, inStock,
+				(pageNum - 1) * pageSize, pageSize);
+
+		ProductFilterVo productFilterVo = new ProductFilterVo();
+		productFilterVo.setPage(PageQueryService.pageOf(result.getList(), pageNum, pageSize,
+				result.getTotal(), (long) pageNum * pageSize < result.getTotal()));
+		productFilterVo.setCategoryCounts(result.getCategoryCounts());
+		productFilterVo.setPriceBucketCounts(result.getPriceBucketCounts());
+		productFilterVo.setInStockCount(result.getInStockCount());
+		productFilterVo.setOutOfStockCount(result.getOutOfStockCount());
+		return ResponseVo.success(productFilterVo);
 	}
 
 	@Override
 	public ResponseVo<ProductDetailVo> detail(Integer productId) {
+		return detail(productCache.get(productId));
+	}
+
+	/**
+	 * update_time 只精确到秒，ETag 里再带上库存，同一秒内的多次扣减也能区分
+	 */
+	@Override
+	public ProductVersionVo detailVersion(Integer productId) {
+		Product product = productCache.get(productId);
+		if (product == null || product.getUpdateTime() == null) {
+			return null;
+		}
+		ProductVersionVo version = new ProductVersionVo();
+		version.setLastModified(product.getUpdateTime().getTime());
+		version.setETag("W/\"p" + productId + "-" + version.getLastModified() + "-" + product.getStock() + "\"");
+		return version;
+	}
+
+	/**
+	 * 批量详情：一次从商品缓存批量取（未命中的用 in 一次查库），每个商品单独给出结果
+	 * @return productId -> 该商品的详情或错误，顺序与入参一致，重复id只返回一次
+	 */
+	@Override
+	public ResponseVo<Map<Integer, ResponseVo<ProductDetailVo>>> detailBatch(List<Integer> productIds) {
+		if (productIds == null || productIds.isEmpty() || productIds.size() > MAX_BATCH_SIZE) {
+			return ResponseVo.error(PARAM_ERROR, "productIds 数量范围 1~" + MAX_BATCH_SIZE);
+		}
+
+		Map<Integer, Product> productMap = productCache.getAll(productIds);
+		Map<Integer, ResponseVo<ProductDetailVo>> result = new LinkedHashMap<>();
+		for (Integer productId : productIds) {
+			result.computeIfAbsent(productId, id -> detail(productMap.get(id)));
+		}
+		return ResponseVo.success(result);
+	}
+
+	@Override
+	@Transactional
+	public ResponseVo<Map<String, Integer>> add(ProductForm form) {
+		Product product = new Product();
+		BeanUtils.copyProperties(form, product);
+		if (product.getStock() == null) {
+			product.setStock(0);
+		}
+		product.setStatus(OFF_SALE.getCode());
+		int row = productMapper.insertSelective(product);
+		if (row == 0) {
+			return ResponseVo.error(ResponseEnum.ERROR);
+		}
+		onProductChanged(product.getId(), null);
+
+		Map<String, Integer> map = new HashMap<>();
+		map.put("productId", product.getId());
+		return ResponseVo.success(map);
+	}
+
+	@Override
+	@Transactional
+	public ResponseVo update(Integer productId, ProductForm form) {
+		Product previous = productMapper.selectByPrimaryKey(productId);
+		if (previous == null) {
+			return ResponseVo.error(PRODUCT_NOT_EXIST);
+		}
+		Product product = new Product();
+		BeanUtils.copyProperties(form, product);
+		product.setId(productId);
+		//库存由下单、取消和分槽维护，这里不覆盖
+		product.setStock(null);
+		product.setUpdateTime(new Date());
+		if (productMapper.updateByPrimaryKeySelective(product) == 0) {
+			return ResponseVo.error(ResponseEnum.ERROR);
+		}
+		onProductChanged(productId, previous.getCategoryId());
+		return ResponseVo.success();
+	}
+
+	@Override
+	@Transactional
+	public ResponseVo updateStatus(Integer productId, Integer status) {
+		if (Arrays.stream(ProductStatusEnum.values()).noneMatch(e -> e.getCode().equals(status))) {
+			return ResponseVo.error(PARAM_ERROR, "status 取值见 ProductStatusEnum");
+		}
+		Product product = new Product();
+		product.setId(productId);
+		product.setStatus(status);
+		product.setUpdateTime(new Date());
+		if (productMapper.updateByPrimaryKeySelective(product) == 0) {
+			return ResponseVo.error(PRODUCT_NOT_EXIST);
+		}
+		onProductChanged(productId, null);
+		return ResponseVo.success();
+	}
+
+	/**
+	 * 商品写库后调用（在写库的事务中）：清商品缓存，提交后再使列表缓存失效、同步排序索引和本节点的搜索索引
+	 */
+	private void onProductChanged(Integer productId, Integer previousCategoryId) {
 		Product product = productMapper.selectByPrimaryKey(productId);
+		productCache.evict(productId);
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCommit() {
+				productListCache.invalidate(product.getCategoryId());
+				if (previousCategoryId != null && !previousCategoryId.equals(product.getCategoryId())) {
+					productListCache.invalidate(previousCategoryId);
+				}
+				productSortIndex.update(product, previousCategoryId);
+				productSearchIndex.update(product);
+			}
+		});
+	}
+
+	private ResponseVo<ProductDetailVo> detail(Product product) {
+		if (product == null) {
+			return ResponseVo.error(PRODUCT_NOT_EXIST);
+		}
 
 		//若商品下架或删除
 		if (product.getStatus().equals(OFF_SALE.getCode())
@@ -79,4 +384,47 @@ public class ProductServiceImpl implements IProductService {
 		productDetailVo.setStock(product.getStock() > 100 ? 100 : product.getStock());
 		return ResponseVo.success(productDetailVo);
 	}
+
+	/**
+	 * 先收集该类目的所有子类目ID（product表的category_id都是叶子类目），再把本类目ID也放进集合里
+	 * categoryId = null 时返回空集合，即不按类目过滤
+	 */
+	private Set<Integer> categoryIdSet(Integer categoryId) {
+		Set<Integer> categoryIdSet = new HashSet<>();
+		if (categoryId != null) {
+			categoryService.findSubCategoryId(categoryId, categoryIdSet);
+			categoryIdSet.add(categoryId);
+		}
+		return categoryIdSet;
+	}
+
+	private List<ProductVo> toProductVoList(List<Product> productList) {
+		return productList.stream()
+				.map(e -> {
+					//避免暴露敏感字段（库存）
+					ProductVo productVo = new ProductVo();
+					BeanUtils.copyProperties(e, productVo);
+					return productVo;
+				})
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * 游标对客户端不透明，内容是上一页最后一个商品id
+	 */
+	private String encodeCursor(Integer lastId) {
+		return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString(String.valueOf(lastId).getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @return 游标无法解析时返回null
+	 */
+	private Integer decodeCursor(String cursor) {
+		try {
+			return Integer.valueOf(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
 }
@@ -1,12 +1,13 @@
 package com.mall.service.impl;
 
-import com.github.pagehelper.PageHelper;
 import com.github.pagehelper.PageInfo;
 import com.mall.dao.ShippingMapper;
+import com.mall.enums.PageCountModeEnum;
 import com.mall.enums.ResponseEnum;
 import com.mall.form.ShippingForm;
 import com.mall.pojo.Shipping;
 import com.mall.service.IShippingService;
+import com.mall.service.PageQueryService;
 import com.mall.vo.ResponseVo;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -23,6 +24,9 @@ public class ShippingServiceImpl implements IShippingService {
 	@Autowired
 	private ShippingMapper shippingMapper;
 
+	@Autowired
+	private PageQueryService pageQueryService;
+
 	@Override
 	public ResponseVo<Map<String, Integer>> add(Integer uid, ShippingForm form) {
 		Shipping shipping = new Shipping();
@@ -63,10 +67,9 @@ public class ShippingServiceImpl implements IShippingService {
 	}
 
 	@Override
-	public ResponseVo<PageInfo> list(Integer uid, Integer pageNum, Integer pageSize) {
-		PageHelper.startPage(pageNum, pageSize);
-		List<Shipping> shippings = shippingMapper.selectByUid(uid);
-		PageInfo pageInfo = new PageInfo(shippings);
+	public ResponseVo<PageInfo> list(Integer uid, Integer pageNum, Integer pageSize, PageCountModeEnum countMode) {
+		PageInfo<Shipping> pageInfo = pageQueryService.page(countMode, "shipping:" + uid,
+				pageNum, pageSize, () -> shippingMapper.selectByUid(uid));
 		return ResponseVo.success(pageInfo);
 	}
 }
@@ -0,0 +1,169 @@
+package com.mall.service.impl;
+
+import com.mall.service.OrderNoGenerator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 雪花算法订单号：41位毫秒时间戳(相对 EPOCH) | 5位 workerId | 7位序号，共53位
+ * 不超过 2^53，前端 js 按 number 解析不丢精度；单节点每毫秒 128 个，最多 32 个节点
+ * 时间戳在最高位，订单号整体随时间递增，mall_order 的 order_no 索引总是在右侧追加
+ *
+ * workerId 通过 redis 租约分配：SET NX PX 抢占 order_no_worker_{id}，定时续租；
+ * 续租失败且租约到期后停止发号，直到重新抢到 workerId，保证同一时刻一个 workerId 只有一个实例在用
+ *
+ * 序号无锁：时间戳和序号打包成一个 long，CAS 更新
+ * 时钟回拨：在 MAX_BACKWARD_MILLIS 内继续沿用上次的时间戳（序号用完就借用下一毫秒），超过则拒绝发号
+ */
+@Slf4j
+@Service
+public class SnowflakeOrderNoGenerator implements OrderNoGenerator {
+
+	/** 2020-01-01 00:00:00 +08:00，比旧的"毫秒时间戳+随机数"订单号大得多，新旧订单号依然有序 */
+	private static final long EPOCH = 1577808000000L;
+
+	private static final int WORKER_BITS = 5;
+
+	private static final int SEQUENCE_BITS = 7;
+
+	private static final int WORKER_COUNT = 1 << WORKER_BITS;
+
+	private static final long MAX_BACKWARD_MILLIS = 5000;
+
+	private static final String WORKER_LEASE_REDIS_KEY_TEMPLATE = "order_no_worker_%d";
+
+	/** workerId -> 该 workerId 最后使用的时间戳，接手 workerId 时从这之后开始发号 */
+	private static final String WORKER_LAST_TIMESTAMP_REDIS_KEY = "order_no_worker_last_ts";
+
+	private static final long LEASE_MILLIS = 30_000;
+
+	private static final long RENEW_INTERVAL_MILLIS = 10_000;
+
+	/** 本地认定的租约有效期比redis中的短，留出节点间时钟误差 */
+	private static final long LEASE_SAFETY_MILLIS = 5_000;
+
+	@Autowired
+	private StringRedisTemplate redisTemplate;
+
+	@Autowired
+	private RedisScript<Long> orderNoWorkerRenewScript;
+
+	private final String instanceId = UUID.randomUUID().toString();
+
+	/** 高位为时间戳（相对 EPOCH），低 SEQUENCE_BITS 位为序号 */
+	private final AtomicLong state = new AtomicLong();
+
+	/** -1 表示当前没有租约 */
+	private volatile int workerId = -1;
+
+	/** 本地时钟下的租约截止时间，过后停止发号 */
+	private volatile long leaseDeadline;
+
+	private final ScheduledExecutorService renewer =
+			Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "order-no-worker-lease");
+				t.setDaemon(true);
+				return t;
+			});
+
+	@PostConstruct
+	public void init() {
+		acquire();
+		renewer.scheduleWithFixedDelay(() -> {
+			try {
+				if (workerId < 0) {
+					acquire();
+				} else {
+					renew();
+				}
+			} catch (RuntimeException e) {
+				log.error("[OrderNoGenerator] 续租 workerId={} 失败", workerId, e);
+			}
+		}, RENEW_INTERVAL_MILLIS, RENEW_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public Long nextOrderNo() {
+		long worker = workerId;
+		if (worker < 0 || System.currentTimeMillis() > leaseDeadline) {
+			throw new RuntimeException("订单号生成器没有有效的 workerId 租约");
+		}
+		while (true) {
+			long current = state.get();
+			long lastTimestamp = current >>> SEQUENCE_BITS;
+			long now = System.currentTimeMillis() - EPOCH;
+			long next;
+			if (now > lastTimestamp) {
+				next = now << SEQUENCE_BITS;
+			} else if (lastTimestamp - now <= MAX_BACKWARD_MILLIS) {
+				//同一毫秒或时钟小幅回拨：序号+1，序号溢出时自然进位到时间戳（借用下一毫秒）
+				next = current + 1;
+			} else {
+				throw new RuntimeException("时钟回拨 " + (lastTimestamp - now) + "ms，拒绝生成订单号");
+			}
+			if (state.compareAndSet(current, next)) {
+				long timestamp = next >>> SEQUENCE_BITS;
+				long sequence = next & ((1L << SEQUENCE_BITS) - 1);
+				return (timestamp << (WORKER_BITS + SEQUENCE_BITS)) | (worker << SEQUENCE_BITS) | sequence;
+			}
+		}
+	}
+
+	/**
+	 * 从随机位置开始依次尝试抢占 workerId，避免多个实例同时启动时都从0开始争抢
+	 */
+	private void acquire() {
+		int start = ThreadLocalRandom.current().nextInt(WORKER_COUNT);
+		for (int i = 0; i < WORKER_COUNT; i++) {
+			int candidate = (start + i) % WORKER_COUNT;
+			long leaseStart = System.currentTimeMillis();
+			if (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(
+					leaseKey(candidate), instanceId, LEASE_MILLIS, TimeUnit.MILLISECONDS))) {
+				continue;
+			}
+			//租约过期前上一个持有者已停止发号；再从它记录的最后时间戳之后开始，防止它的时钟比本机快
+			Object lastUsed = redisTemplate.opsForHash().get(WORKER_LAST_TIMESTAMP_REDIS_KEY, String.valueOf(candidate));
+			if (lastUsed != null) {
+				long lastTimestamp = Long.parseLong(lastUsed.toString());
+				state.accumulateAndGet((lastTimestamp + 1) << SEQUENCE_BITS, Math::max);
+			}
+			leaseDeadline = leaseStart + LEASE_MILLIS - LEASE_SAFETY_MILLIS;
+			workerId = candidate;
+			log.info("[OrderNoGenerator] 获得 workerId={}", candidate);
+			return;
+		}
+		log.error("[OrderNoGenerator] {} 个 workerId 均已被占用，暂停发号", WORKER_COUNT);
+	}
+
+	private void renew() {
+		int current = workerId;
+		long renewStart = System.currentTimeMillis();
+		long lastTimestamp = state.get() >>> SEQUENCE_BITS;
+		Long renewed = redisTemplate.execute(orderNoWorkerRenewScript,
+				Arrays.asList(leaseKey(current), WORKER_LAST_TIMESTAMP_REDIS_KEY),
+				instanceId, String.valueOf(LEASE_MILLIS), String.valueOf(current), String.valueOf(lastTimestamp));
+		if (renewed != null && renewed == 1) {
+			leaseDeadline = renewStart + LEASE_MILLIS - LEASE_SAFETY_MILLIS;
+			return;
+		}
+		log.warn("[OrderNoGenerator] workerId={} 的租约已失效，重新获取", current);
+		workerId = -1;
+		acquire();
+	}
+
+	private String leaseKey(int worker) {
+		return String.format(WORKER_LEASE_REDIS_KEY_TEMPLATE, worker);
+	}
+}
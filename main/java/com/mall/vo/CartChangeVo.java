@@ -0,0 +1,27 @@
+package com.mall.vo;
+
+import lombok.Data;
+
+import java.math.BigDecimal;
+
+/**
+ * 购物车修改后的精简返回：只含本次修改的商品和购物车汇总
+ * 客户端本地维护购物车时使用，避免每次修改都返回完整的 CartVo
+ */
+@Data
+public class CartChangeVo {
+
+	/**
+	 * 本次修改的商品，删除时为null
+	 */
+	private CartProductVo cartProductVo;
+
+	private Boolean selectedAll;
+
+	private Integer cartTotalQuantity;
+
+	/**
+	 * 选中商品的总价
+	 */
+	private BigDecimal cartTotalPrice;
+}
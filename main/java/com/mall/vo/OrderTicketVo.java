@@ -0,0 +1,19 @@
+package com.mall.vo;
+
+import lombok.Data;
+
+
+@Data
+public class OrderTicketVo {
+
+	/** 下单成功后即为订单号 */
+	private Long orderNo;
+
+	/** OrderTicketStatusEnum */
+	private Integer status;
+
+	private String msg;
+
+	/** 排队中时返回队列积压的消息数 */
+	private Long backlog;
+}
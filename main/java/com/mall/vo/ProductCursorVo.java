@@ -0,0 +1,21 @@
+package com.mall.vo;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 游标分页返回：不返回总数和页码，客户端用 nextCursor 请求下一页
+ */
+@Data
+public class ProductCursorVo {
+
+	private List<ProductVo> list;
+
+	private Boolean hasNext;
+
+	/**
+	 * 下一页的游标，没有下一页时为null
+	 */
+	private String nextCursor;
+}
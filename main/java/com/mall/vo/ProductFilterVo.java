@@ -0,0 +1,30 @@
+package com.mall.vo;
+
+import com.github.pagehelper.PageInfo;
+import lombok.Data;
+
+import java.util.Map;
+
+/**
+ * 多条件筛选结果：商品分页 + 各维度的分面计数
+ * 每个维度的计数只受其它维度条件影响
+ */
+@Data
+public class ProductFilterVo {
+
+	private PageInfo<ProductVo> page;
+
+	/**
+	 * categoryId(叶子类目) -> 商品数
+	 */
+	private Map<Integer, Integer> categoryCounts;
+
+	/**
+	 * 价格区间(如 "100-500") -> 商品数，顺序与筛选参数 priceBuckets 的下标一致
+	 */
+	private Map<String, Integer> priceBucketCounts;
+
+	private Long inStockCount;
+
+	private Long outOfStockCount;
+}
@@ -0,0 +1,17 @@
+package com.mall.vo;
+
+import lombok.Data;
+
+/**
+ * 商品详情的校验值，用于条件请求(ETag/Last-Modified)，不返回给客户端
+ */
+@Data
+public class ProductVersionVo {
+
+	private String eTag;
+
+	/**
+	 * update_time 毫秒；商品信息、状态、库存的变化都会更新它
+	 */
+	private Long lastModified;
+}
@@ -0,0 +1,19 @@
+-- 购物车加购：数量+delta，不存在则新增
+-- ARGV[1] productId(hashkey)  ARGV[2] 增加的数量  ARGV[3] 新增时是否选中(true/false)
+-- 返回加购后的数量
+ensure_summary(KEYS[1], KEYS[2])
+local delta = tonumber(ARGV[2])
+local value = redis.call('HGET', KEYS[1], ARGV[1])
+local quantity, selected
+if value then
+    quantity, selected = decode(value)
+else
+    quantity = 0
+    selected = (ARGV[3] == 'true') and 1 or 0
+    redis.call('HINCRBY', KEYS[2], 'lines', 1)
+    redis.call('HINCRBY', KEYS[2], 'selected', selected)
+end
+quantity = quantity + delta
+redis.call('HSET', KEYS[1], ARGV[1], encode(quantity, selected))
+redis.call('HINCRBY', KEYS[2], 'quantity', delta)
+return quantity
@@ -0,0 +1,51 @@
+-- 购物车脚本公共部分，由 RedisScriptConfig 拼接在每个 cart_*.lua 之前
+-- KEYS[1] 购物车key(cart_uid)  KEYS[2] 购物车汇总key(cart_sum_uid)
+-- 汇总hash字段：quantity 商品总数量  selected 选中的行数  lines 行数
+
+-- value 格式固定为 quantity * 2 + selected（十进制整数字符串），兼容读取旧的 JSON value
+-- 购物车 value 只由这里的 encode 写入，Java 端 PackedCartCodec 只负责解码，修改格式时两边同步修改
+local function decode(value)
+    if string.sub(value, 1, 1) == '{' then
+        local cart = cjson.decode(value)
+        return cart['quantity'], (cart['productSelected'] == true) and 1 or 0
+    end
+    local packed = tonumber(value)
+    return math.floor(packed / 2), packed % 2
+end
+
+local function encode(quantity, selected)
+    return quantity * 2 + selected
+end
+
+-- 按购物车全量重建汇总
+local function rebuild_summary(cartKey, sumKey)
+    local quantity, selected, lines = 0, 0, 0
+    local entries = redis.call('HGETALL', cartKey)
+    for i = 2, #entries, 2 do
+        local q, s = decode(entries[i])
+        quantity = quantity + q
+        selected = selected + s
+        lines = lines + 1
+    end
+    if lines == 0 then
+        redis.call('DEL', sumKey)
+    else
+        redis.call('HMSET', sumKey, 'quantity', quantity, 'selected', selected, 'lines', lines)
+    end
+end
+
+-- 汇总不存在（老购物车）或行数与购物车对不上（漂移）时重建，HLEN 是 O(1)
+local function ensure_summary(cartKey, sumKey)
+    local lines = tonumber(redis.call('HGET', sumKey, 'lines') or '0')
+    if lines ~= redis.call('HLEN', cartKey) then
+        rebuild_summary(cartKey, sumKey)
+    end
+end
+
+-- 购物车清空后删除汇总key
+local function cleanup_summary(cartKey, sumKey)
+    if redis.call('HLEN', cartKey) == 0 then
+        redis.call('DEL', sumKey)
+    end
+end
+
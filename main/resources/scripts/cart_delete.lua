@@ -0,0 +1,18 @@
+-- 购物车删除：一次删除一个或多个商品
+-- ARGV[1..n] productId(hashkey)
+-- 返回实际删除的行数
+ensure_summary(KEYS[1], KEYS[2])
+local removed = 0
+for i = 1, #ARGV do
+    local value = redis.call('HGET', KEYS[1], ARGV[i])
+    if value then
+        local quantity, selected = decode(value)
+        redis.call('HDEL', KEYS[1], ARGV[i])
+        redis.call('HINCRBY', KEYS[2], 'quantity', -quantity)
+        redis.call('HINCRBY', KEYS[2], 'selected', -selected)
+        redis.call('HINCRBY', KEYS[2], 'lines', -1)
+        removed = removed + 1
+    end
+end
+cleanup_summary(KEYS[1], KEYS[2])
+return removed
@@ -0,0 +1,11 @@
+-- 购物车全选/全不选
+-- ARGV[1] 1：全选  0：全不选
+-- 返回行数
+local selected = tonumber(ARGV[1])
+local entries = redis.call('HGETALL', KEYS[1])
+for i = 1, #entries, 2 do
+    local quantity = decode(entries[i + 1])
+    redis.call('HSET', KEYS[1], entries[i], encode(quantity, selected))
+end
+rebuild_summary(KEYS[1], KEYS[2])
+return #entries / 2
@@ -0,0 +1,10 @@
+-- 读取购物车汇总
+-- ARGV[1] 1：强制按购物车全量重建（对账）  0：仅在缺失或漂移时重建
+-- 返回 {quantity, selected, lines}
+if ARGV[1] == '1' then
+    rebuild_summary(KEYS[1], KEYS[2])
+else
+    ensure_summary(KEYS[1], KEYS[2])
+end
+local summary = redis.call('HMGET', KEYS[2], 'quantity', 'selected', 'lines')
+return {tonumber(summary[1] or '0'), tonumber(summary[2] or '0'), tonumber(summary[3] or '0')}
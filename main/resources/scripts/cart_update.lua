@@ -0,0 +1,20 @@
+-- 购物车修改：设置数量/选中状态
+-- ARGV[1] productId(hashkey)  ARGV[2] 数量(空串表示不修改)  ARGV[3] 是否选中(空串表示不修改)
+-- 返回 0：购物车里无此商品  1：修改成功
+local value = redis.call('HGET', KEYS[1], ARGV[1])
+if not value then
+    return 0
+end
+ensure_summary(KEYS[1], KEYS[2])
+local oldQuantity, oldSelected = decode(value)
+local quantity, selected = oldQuantity, oldSelected
+if ARGV[2] ~= '' then
+    quantity = tonumber(ARGV[2])
+end
+if ARGV[3] ~= '' then
+    selected = (ARGV[3] == 'true') and 1 or 0
+end
+redis.call('HSET', KEYS[1], ARGV[1], encode(quantity, selected))
+redis.call('HINCRBY', KEYS[2], 'quantity', quantity - oldQuantity)
+redis.call('HINCRBY', KEYS[2], 'selected', selected - oldSelected)
+return 1
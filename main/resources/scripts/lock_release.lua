@@ -0,0 +1,7 @@
+-- 释放 SET NX PX 加的锁：只删除自己持有的锁
+-- KEYS[1] 锁key  ARGV[1] 加锁时写入的标识
+-- 返回 1 已释放；0 锁已过期或被其他节点持有
+if redis.call('GET', KEYS[1]) == ARGV[1] then
+    return redis.call('DEL', KEYS[1])
+end
+return 0
@@ -0,0 +1,10 @@
+-- 续租订单号 worker id
+-- KEYS[1] worker 租约key  KEYS[2] 各worker最后使用的时间戳(hash)
+-- ARGV[1] 本实例标识  ARGV[2] 租约时长(ms)  ARGV[3] workerId  ARGV[4] 本实例已用到的时间戳
+-- 返回 1 续租成功；0 租约已不属于本实例
+if redis.call('GET', KEYS[1]) ~= ARGV[1] then
+    return 0
+end
+redis.call('PEXPIRE', KEYS[1], ARGV[2])
+redis.call('HSET', KEYS[2], ARGV[3], ARGV[4])
+return 1
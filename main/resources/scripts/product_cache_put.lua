@@ -0,0 +1,15 @@
+-- 回填商品缓存：读库前记下的版本号与当前版本号相同（期间没有 evict）才写入，防止把提交前读到的旧值写回
+-- KEYS 依次为 缓存key, 版本号key 两个一组
+-- ARGV 依次为 读库前的版本号(没有版本号key时为0), 过期秒数, 值 三个一组
+-- 返回每个缓存key是否写入(1/0)
+local written = {}
+for i = 1, #KEYS, 2 do
+    local j = (i - 1) / 2 * 3 + 1
+    if (redis.call('GET', KEYS[i + 1]) or '0') == ARGV[j] then
+        redis.call('SETEX', KEYS[i], ARGV[j + 1], ARGV[j + 2])
+        written[#written + 1] = 1
+    else
+        written[#written + 1] = 0
+    end
+end
+return written
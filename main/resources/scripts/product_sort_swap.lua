@@ -0,0 +1,11 @@
+-- 商品排序索引重建：把临时集合原子地替换为正式集合，同时取走重建期间累计的销量增量
+-- KEYS[1] 销量增量hash  KEYS[2] 增量快照key  KEYS[3..] 依次成对的 临时key、正式key
+-- 返回 1 有增量，已改名为快照key；0 没有增量
+for i = 3, #KEYS, 2 do
+    redis.call('RENAME', KEYS[i], KEYS[i + 1])
+end
+if redis.call('EXISTS', KEYS[1]) == 1 then
+    redis.call('RENAME', KEYS[1], KEYS[2])
+    return 1
+end
+return 0
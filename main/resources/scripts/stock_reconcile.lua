@@ -0,0 +1,22 @@
+-- 对账：可售库存 = mysql库存 - 预占未落库的数量
+-- KEYS[1] 商品可售库存(hash)  KEYS[2] 已预占未落库的数量(hash)
+-- ARGV 依次为 productId, mysql库存, 疑似泄漏的预占数量(-1 表示没有) 三个一组
+-- 预占数量与疑似泄漏值仍相等时视为进程崩溃遗留，清零
+-- 返回被修正的商品数
+local corrected = 0
+for i = 1, #ARGV, 3 do
+    local inflight = tonumber(redis.call('HGET', KEYS[2], ARGV[i]) or '0')
+    if ARGV[i + 2] ~= '-1' and inflight == tonumber(ARGV[i + 2]) then
+        redis.call('HDEL', KEYS[2], ARGV[i])
+        inflight = 0
+    end
+    local expected = tonumber(ARGV[i + 1]) - inflight
+    if expected < 0 then
+        expected = 0
+    end
+    if tonumber(redis.call('HGET', KEYS[1], ARGV[i]) or '-1') ~= expected then
+        redis.call('HSET', KEYS[1], ARGV[i], expected)
+        corrected = corrected + 1
+    end
+end
+return corrected
@@ -0,0 +1,16 @@
+-- 结束预占 / 归还库存
+-- KEYS[1] 商品可售库存(hash)  KEYS[2] 已预占未落库的数量(hash)
+-- ARGV[1] 1 表示把数量加回可售库存（事务回滚、订单取消）
+-- ARGV[2] 1 表示从预占数量中减去（预占对应的事务已结束）
+-- ARGV[3..n] 依次为 productId, quantity 成对出现
+-- 不在redis中的商品跳过，由对账任务补齐
+for i = 3, #ARGV, 2 do
+    local quantity = tonumber(ARGV[i + 1])
+    if ARGV[1] == '1' and redis.call('HEXISTS', KEYS[1], ARGV[i]) == 1 then
+        redis.call('HINCRBY', KEYS[1], ARGV[i], quantity)
+    end
+    if ARGV[2] == '1' and redis.call('HINCRBY', KEYS[2], ARGV[i], -quantity) <= 0 then
+        redis.call('HDEL', KEYS[2], ARGV[i])
+    end
+end
+return 0
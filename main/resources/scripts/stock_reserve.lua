@@ -0,0 +1,18 @@
+-- 预占库存：全部商品库存都够才扣，否则一个都不扣
+-- KEYS[1] 商品可售库存(hash)  KEYS[2] 已预占未落库的数量(hash)
+-- ARGV 依次为 productId, quantity 成对出现
+-- 返回 0 预占成功；-1 有商品不在redis中（交给mysql判断）；>0 库存不足的 productId
+for i = 1, #ARGV, 2 do
+    local stock = redis.call('HGET', KEYS[1], ARGV[i])
+    if not stock then
+        return -1
+    end
+    if tonumber(stock) < tonumber(ARGV[i + 1]) then
+        return tonumber(ARGV[i])
+    end
+end
+for i = 1, #ARGV, 2 do
+    redis.call('HINCRBY', KEYS[1], ARGV[i], -tonumber(ARGV[i + 1]))
+    redis.call('HINCRBY', KEYS[2], ARGV[i], ARGV[i + 1])
+end
+return 0
@@ -0,0 +1,11 @@
+-- 游标分页：按 id 升序、id > 游标 取下一页，不用 offset，不 count
+--
+-- 单个类目(selectByCategoryIdSetMergedAfter 的每个分支)：where status = 1 and category_id = ? and id > ? order by id limit ?
+-- 在该索引上直接定位到游标后顺序读 limit 行，不随页数变慢
+-- 父类目是多个叶子类目的 in，不能靠这个索引按 id 有序（要把剩下的整棵子树读出来再排序），
+-- 所以按叶子类目各取 limit 行再合并，每页最多读 叶子类目数 × limit 行
+ALTER TABLE mall_product ADD INDEX idx_status_category_id_id (status, category_id, id);
+
+-- 不限类目或叶子类目很多时(selectByCategoryIdSetAfter)：where status = 1 and id > ? [and category_id in (...)] order by id limit ?
+-- 沿该索引按 id 顺序读，类目条件在索引上过滤，命中 limit 行即停止；类目占比越低要跳过的索引项越多
+ALTER TABLE mall_product ADD INDEX idx_status_id_category_id (status, id, category_id);
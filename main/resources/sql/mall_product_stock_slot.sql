@@ -0,0 +1,10 @@
+-- 热点商品库存分槽：库存拆到 N 行，扣减分散到不同的行锁上
+-- 商品在本表中有记录即为热点商品，其可售库存 = 各槽位之和；mall_product.stock 由 StockSlotService 定时回写汇总值，仅供展示
+-- 开启/关闭分槽用 StockSlotService.split / merge，槽位号从0开始连续
+CREATE TABLE mall_product_stock_slot (
+  product_id INT(11) NOT NULL COMMENT '商品id',
+  slot INT(11) NOT NULL COMMENT '槽位号，0 ~ N-1',
+  stock INT(11) NOT NULL DEFAULT 0 COMMENT '该槽位库存',
+  update_time DATETIME DEFAULT NULL COMMENT '更新时间',
+  PRIMARY KEY (product_id, slot)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
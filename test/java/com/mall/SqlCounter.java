@@ -0,0 +1,75 @@
+package com.mall;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.*;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 测试用：统计各 mapper 方法实际执行的 sql 次数
+ * mybatis-spring-boot-starter 会把容器中的 Interceptor 注册到 SqlSessionFactory，测试类 @Import 即可
+ */
+@Component
+@Intercepts({
+		@Signature(type = Executor.class, method = "query",
+				args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+		@Signature(type = Executor.class, method = "query",
+				args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class}),
+		@Signature(type = Executor.class, method = "update",
+				args = {MappedStatement.class, Object.class}),
+})
+public class SqlCounter implements Interceptor {
+
+	/** mapper 方法全名(如 com.mall.dao.ProductMapper.selectByPrimaryKey) -> 执行次数 */
+	private final Map<String, LongAdder> counts = new ConcurrentHashMap<>();
+
+	@Override
+	public Object intercept(Invocation invocation) throws Throwable {
+		MappedStatement statement = (MappedStatement) invocation.getArgs()[0];
+		counts.computeIfAbsent(statement.getId(), k -> new LongAdder()).increment();
+		return invocation.proceed();
+	}
+
+	@Override
+	public Object plugin(Object target) {
+		return Plugin.wrap(target, this);
+	}
+
+	@Override
+	public void setProperties(Properties properties) {
+	}
+
+	public void reset() {
+		counts.clear();
+	}
+
+	/**
+	 * @param mapperMethod 如 "ProductMapper.selectByPrimaryKey"，按后缀匹配
+	 */
+	public long count(String mapperMethod) {
+		return counts.entrySet().stream()
+				.filter(entry -> entry.getKey().endsWith(mapperMethod))
+				.mapToLong(entry -> entry.getValue().sum())
+				.sum();
+	}
+
+	/**
+	 * 某个 mapper 上所有方法的执行次数之和
+	 * @param mapper 如 "ProductMapper"
+	 */
+	public long countMapper(String mapper) {
+		return counts.entrySet().stream()
+				.filter(entry -> entry.getKey().contains("." + mapper + "."))
+				.mapToLong(entry -> entry.getValue().sum())
+				.sum();
+	}
+}
@@ -0,0 +1,104 @@
+package com.mall.cache;
+
+import com.mall.SqlCounter;
+import com.mall.dao.ProductMapper;
+import com.mall.enums.ProductStatusEnum;
+import com.mall.pojo.Product;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 商品缓存：缓存失效瞬间的大量并发未命中只回源一次；只有库存变化时不清商品信息
+ * 需要本地 mysql 与 redis；用新建的商品，结束后删除
+ */
+@SpringBootTest
+class ProductCacheTest {
+
+	private static final int CONCURRENT_MISSES = 1000;
+
+	@Autowired
+	private ProductCache productCache;
+
+	@Autowired
+	private ProductMapper productMapper;
+
+	@Autowired
+	private SqlCounter sqlCounter;
+
+	private Integer productId;
+
+	@BeforeEach
+	void setUp() {
+		Product product = new Product();
+		product.setCategoryId(100001);
+		product.setName("product-cache-test-" + UUID.randomUUID());
+		product.setPrice(BigDecimal.ONE);
+		product.setStock(10);
+		product.setStatus(ProductStatusEnum.ON_SALE.getCode());
+		productMapper.insertSelective(product);
+		productId = product.getId();
+	}
+
+	@AfterEach
+	void tearDown() {
+		productMapper.deleteByPrimaryKey(productId);
+		productCache.evict(productId);
+	}
+
+	@Test
+	void concurrentMissesLoadOnce() throws Exception {
+		productCache.evict(productId);
+		sqlCounter.reset();
+
+		ExecutorService pool = Executors.newFixedThreadPool(CONCURRENT_MISSES);
+		CountDownLatch ready = new CountDownLatch(CONCURRENT_MISSES);
+		CountDownLatch start = new CountDownLatch(1);
+		try {
+			List<Future<Product>> futures = new ArrayList<>();
+			for (int i = 0; i < CONCURRENT_MISSES; i++) {
+				futures.add(pool.submit(() -> {
+					ready.countDown();
+					start.await();
+					return productCache.get(productId);
+				}));
+			}
+			ready.await();
+			start.countDown();
+			for (Future<Product> future : futures) {
+				assertEquals(productId, future.get(1, TimeUnit.MINUTES).getId());
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+
+		assertEquals(1, sqlCounter.count("ProductMapper.selectByPrimaryKey"));
+	}
+
+	/**
+	 * 扣减库存后只清库存条目：再次读取只查库存列，返回的是新库存，商品信息仍来自缓存
+	 */
+	@Test
+	void stockChangeKeepsProductInfoCached() {
+		productCache.evict(productId);
+		productCache.get(productId);
+
+		productMapper.deductStock(productId, 3);
+		productCache.evictStock(productId);
+
+		sqlCounter.reset();
+		assertEquals(7, productCache.get(productId).getStock().intValue());
+		assertEquals(0, sqlCounter.count("ProductMapper.selectByPrimaryKey"));
+		assertEquals(1, sqlCounter.count("ProductMapper.selectStockByProductIdSet"));
+	}
+}
@@ -0,0 +1,218 @@
+package com.mall.service;
+
+import com.mall.dao.ProductMapper;
+import com.mall.dao.ProductStockSlotMapper;
+import com.mall.enums.ProductStatusEnum;
+import com.mall.pojo.Product;
+import com.mall.pojo.ProductStockSlot;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 热点商品分槽扣减：临近售罄时的并发正确性，以及分槽前后的扣减吞吐
+ * 需要本地 mysql（含 mall_product_stock_slot 表）与 redis；每个用例新建自己的商品，结束后删除
+ */
+@Slf4j
+@SpringBootTest
+class StockSlotServiceTest {
+
+	private static final int SLOT_COUNT = 4;
+
+	private static final int ROUNDS = 20;
+
+	/** 并发下单各自购买的数量，合计超过每轮的库存 */
+	private static final int[] QUANTITIES = {2, 2, 1};
+
+	private static final int BENCHMARK_THREADS = 16;
+
+	private static final int BENCHMARK_DEDUCTIONS = 2000;
+
+	private static final int BENCHMARK_SLOT_COUNT = 8;
+
+	@Autowired
+	private StockSlotService stockSlotService;
+
+	@Autowired
+	private ProductMapper productMapper;
+
+	@Autowired
+	private ProductStockSlotMapper productStockSlotMapper;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private TransactionTemplate readCommitted;
+
+	private TransactionTemplate repeatableRead;
+
+	private Integer productId;
+
+	@BeforeEach
+	void setUp() {
+		readCommitted = new TransactionTemplate(transactionManager);
+		readCommitted.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+		repeatableRead = new TransactionTemplate(transactionManager);
+		repeatableRead.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+
+		Product product = new Product();
+		product.setCategoryId(100001);
+		product.setName("stock-slot-test-" + UUID.randomUUID());
+		product.setPrice(BigDecimal.ONE);
+		product.setStock(0);
+		product.setStatus(ProductStatusEnum.ON_SALE.getCode());
+		productMapper.insertSelective(product);
+		productId = product.getId();
+	}
+
+	@AfterEach
+	void tearDown() {
+		if (productId != null) {
+			stockSlotService.merge(productId);
+			productMapper.deleteByPrimaryKey(productId);
+		}
+	}
+
+	/**
+	 * 每轮各槽位只剩1件：买2件的下单凑不到单个槽位，只能按槽位号顺序加锁从多个槽位凑；
+	 * 买1件的下单先试单个槽位，被抢先扣完时再走同样的兜底路径
+	 * 不能死锁、不能超卖，卖出的总数等于槽位减少的总数
+	 */
+	@Test
+	void concurrentCheckoutsNearSellOutDoNotDeadlockOrOversell() throws Exception {
+		checkoutNearSellOut(readCommitted);
+	}
+
+	/**
+	 * REPEATABLE READ 下不从随机槽位尝试，全部按槽位号顺序加锁，同样不能死锁、不能超卖
+	 */
+	@Test
+	void repeatableReadCheckoutsNearSellOutDoNotDeadlockOrOversell() throws Exception {
+		checkoutNearSellOut(repeatableRead);
+	}
+
+	private void checkoutNearSellOut(TransactionTemplate transaction) throws Exception {
+		stockSlotService.split(productId, SLOT_COUNT);
+		ExecutorService pool = Executors.newFixedThreadPool(QUANTITIES.length);
+		try {
+			for (int round = 0; round < ROUNDS; round++) {
+				for (int slot = 0; slot < SLOT_COUNT; slot++) {
+					productStockSlotMapper.add(productId, slot, 1 - slotStock(slot));
+				}
+
+				CyclicBarrier barrier = new CyclicBarrier(QUANTITIES.length);
+				AtomicInteger sold = new AtomicInteger();
+				List<Future<?>> futures = new ArrayList<>();
+				for (int quantity : QUANTITIES) {
+					futures.add(pool.submit(() -> {
+						barrier.await();
+						transaction.execute(status -> {
+							if (stockSlotService.deduct(productId, quantity)) {
+								sold.addAndGet(quantity);
+							}
+							return null;
+						});
+						return null;
+					}));
+				}
+				//死锁时 mysql 会让其中一个事务失败，这里会抛出 ExecutionException
+				for (Future<?> future : futures) {
+					future.get(30, TimeUnit.SECONDS);
+				}
+
+				int remaining = totalSlotStock();
+				assertTrue(remaining >= 0);
+				assertEquals(SLOT_COUNT, sold.get() + remaining);
+				//最多只有一单因库存不足失败
+				assertTrue(sold.get() >= SLOT_COUNT - 1);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * 同一商品的并发扣减：单行库存 vs 分成 BENCHMARK_SLOT_COUNT 个槽位
+	 * 耗时只打日志对比（与机器和 mysql 配置相关），断言只检查库存不多扣、不少扣
+	 */
+	@Test
+	void slottedDeductionThroughput() throws Exception {
+		productMapper.updateStock(productId, BENCHMARK_DEDUCTIONS);
+		long singleRowMillis = deductConcurrently();
+		assertEquals(0, productMapper.selectByPrimaryKey(productId).getStock().intValue());
+
+		productMapper.updateStock(productId, BENCHMARK_DEDUCTIONS);
+		stockSlotService.split(productId, BENCHMARK_SLOT_COUNT);
+		long slottedMillis = deductConcurrently();
+		assertEquals(0, totalSlotStock());
+
+		log.info("[StockSlotBenchmark] {} 线程扣减 {} 次：单行 {}ms，{} 个槽位 {}ms",
+				BENCHMARK_THREADS, BENCHMARK_DEDUCTIONS, singleRowMillis, BENCHMARK_SLOT_COUNT, slottedMillis);
+	}
+
+	/**
+	 * BENCHMARK_THREADS 个线程各自在 READ COMMITTED 事务中每次扣1件，共扣 BENCHMARK_DEDUCTIONS 次
+	 * @return 耗时
+	 */
+	private long deductConcurrently() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(BENCHMARK_THREADS);
+		AtomicInteger deducted = new AtomicInteger();
+		AtomicInteger failed = new AtomicInteger();
+		CyclicBarrier barrier = new CyclicBarrier(BENCHMARK_THREADS);
+		long start;
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < BENCHMARK_THREADS; i++) {
+				futures.add(pool.submit(() -> {
+					barrier.await();
+					while (deducted.get() + failed.get() < BENCHMARK_DEDUCTIONS) {
+						Boolean ok = readCommitted.execute(status -> stockSlotService.deduct(productId, 1));
+						if (Boolean.TRUE.equals(ok)) {
+							deducted.incrementAndGet();
+						} else {
+							failed.incrementAndGet();
+						}
+					}
+					return null;
+				}));
+			}
+			start = System.currentTimeMillis();
+			for (Future<?> future : futures) {
+				future.get(5, TimeUnit.MINUTES);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		assertEquals(BENCHMARK_DEDUCTIONS, deducted.get());
+		return System.currentTimeMillis() - start;
+	}
+
+	private int slotStock(int slot) {
+		return productStockSlotMapper.selectByProductId(productId).stream()
+				.filter(s -> s.getSlot() == slot)
+				.mapToInt(ProductStockSlot::getStock)
+				.sum();
+	}
+
+	private int totalSlotStock() {
+		return productStockSlotMapper.selectByProductId(productId).stream()
+				.mapToInt(ProductStockSlot::getStock)
+				.sum();
+	}
+}
@@ -0,0 +1,216 @@
+package com.mall.service.impl;
+
+import com.mall.SqlCounter;
+import com.mall.cache.ProductCache;
+import com.mall.dao.ProductMapper;
+import com.mall.enums.ProductStatusEnum;
+import com.mall.form.CartAddForm;
+import com.mall.form.CartUpdateForm;
+import com.mall.pojo.Cart;
+import com.mall.pojo.Product;
+import com.mall.service.ICartService;
+import com.mall.vo.CartVo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.IntConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 购物车：列表的查库次数，lua 脚本在并发修改下的原子性
+ * 需要本地 mysql 与 redis；用随机 uid 和新建的商品，结束后删除
+ */
+@SpringBootTest
+class CartServiceImplTest {
+
+	private static final int CART_LINES = 20;
+
+	private static final int THREADS = 16;
+
+	private static final int ADDS_PER_THREAD = 50;
+
+	@Autowired
+	private ICartService cartService;
+
+	@Autowired
+	private ProductMapper productMapper;
+
+	@Autowired
+	private ProductCache productCache;
+
+	@Autowired
+	private StringRedisTemplate redisTemplate;
+
+	@Autowired
+	private SqlCounter sqlCounter;
+
+	private Integer uid;
+
+	private final List<Integer> productIds = new ArrayList<>();
+
+	@BeforeEach
+	void setUp() {
+		uid = ThreadLocalRandom.current().nextInt(100_000_000, Integer.MAX_VALUE);
+		for (int i = 0; i < CART_LINES; i++) {
+			Product product = new Product();
+			product.setCategoryId(100001);
+			product.setName("cart-test-" + UUID.randomUUID());
+			product.setPrice(BigDecimal.TEN);
+			product.setStock(100);
+			product.setStatus(ProductStatusEnum.ON_SALE.getCode());
+			productMapper.insertSelective(product);
+			productIds.add(product.getId());
+		}
+	}
+
+	@AfterEach
+	void tearDown() {
+		redisTemplate.delete(Arrays.asList("cart_" + uid, "cart_sum_" + uid));
+		for (Integer productId : productIds) {
+			productMapper.deleteByPrimaryKey(productId);
+			productCache.evict(productId);
+		}
+	}
+
+	/**
+	 * 商品缓存全部未命中时，列表只用一次 in 查询取全部商品，不按行查库；再次列表不查库
+	 */
+	@Test
+	void listLoadsProductsInOneQuery() {
+		for (Integer productId : productIds) {
+			addToCart(productId);
+			productCache.evict(productId);
+		}
+
+		sqlCounter.reset();
+		CartVo cartVo = cartService.list(uid).getData();
+		assertEquals(CART_LINES, cartVo.getCartProductVoList().size());
+		assertEquals(1, sqlCounter.count("ProductMapper.selectByProductIdSetWithoutLock"));
+		assertEquals(1, sqlCounter.countMapper("ProductMapper"));
+
+		sqlCounter.reset();
+		cartService.list(uid);
+		assertEquals(0, sqlCounter.countMapper("ProductMapper"));
+	}
+
+	/**
+	 * 并发加购同一商品：lua 在 redis 端读-改-写，数量不丢失更新，汇总与购物车一致
+	 */
+	@Test
+	void concurrentAddsOfSameProductAreNotLost() throws Exception {
+		Integer productId = productIds.get(0);
+		runConcurrently(thread -> {
+			for (int i = 0; i < ADDS_PER_THREAD; i++) {
+				addToCart(productId);
+			}
+		});
+
+		int expected = THREADS * ADDS_PER_THREAD;
+		List<Cart> cartList = cartService.listForCart(uid);
+		assertEquals(1, cartList.size());
+		assertEquals(expected, cartList.get(0).getQuantity().intValue());
+		assertEquals(expected, cartService.sum(uid).getData().intValue());
+	}
+
+	/**
+	 * 并发的加购、改数量、改选中、全选/全不选、删除交错执行后，汇总 hash 与按购物车重新计算的结果一致
+	 */
+	@Test
+	void summaryStaysConsistentUnderConcurrentMutations() throws Exception {
+		runConcurrently(thread -> {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			for (int i = 0; i < ADDS_PER_THREAD; i++) {
+				Integer productId = productIds.get(random.nextInt(productIds.size()));
+				switch (random.nextInt(5)) {
+					case 0:
+						CartUpdateForm quantityForm = new CartUpdateForm();
+						quantityForm.setQuantity(random.nextInt(1, 10));
+						cartService.update(uid, productId, quantityForm);
+						break;
+					case 1:
+						CartUpdateForm selectedForm = new CartUpdateForm();
+						selectedForm.setSelected(random.nextBoolean());
+						cartService.update(uid, productId, selectedForm);
+						break;
+					case 2:
+						if (random.nextBoolean()) {
+							cartService.selectAll(uid);
+						} else {
+							cartService.unSelectAll(uid);
+						}
+						break;
+					case 3:
+						cartService.delete(uid, productId);
+						break;
+					default:
+						addToCart(productId);
+				}
+			}
+		});
+
+		List<Cart> cartList = cartService.listForCart(uid);
+		Map<Object, Object> summary = redisTemplate.opsForHash().entries("cart_sum_" + uid);
+		long quantity = cartList.stream().mapToLong(Cart::getQuantity).sum();
+		long selected = cartList.stream().filter(Cart::getProductSelected).count();
+		assertEquals(quantity, Long.parseLong(String.valueOf(summary.getOrDefault("quantity", "0"))));
+		assertEquals(selected, Long.parseLong(String.valueOf(summary.getOrDefault("selected", "0"))));
+		assertEquals(cartList.size(), Long.parseLong(String.valueOf(summary.getOrDefault("lines", "0"))));
+	}
+
+	/**
+	 * 汇总的数量、选中行数漂移（行数不变）时，列表会按购物车重建汇总
+	 */
+	@Test
+	void listRepairsDriftedSummary() {
+		addToCart(productIds.get(0));
+		addToCart(productIds.get(0));
+		addToCart(productIds.get(1));
+		redisTemplate.opsForHash().put("cart_sum_" + uid, "quantity", "100");
+		redisTemplate.opsForHash().put("cart_sum_" + uid, "selected", "0");
+
+		cartService.list(uid);
+
+		Map<Object, Object> summary = redisTemplate.opsForHash().entries("cart_sum_" + uid);
+		assertEquals("3", summary.get("quantity"));
+		assertEquals("2", summary.get("selected"));
+		assertEquals("2", summary.get("lines"));
+	}
+
+	/**
+	 * THREADS 个线程同时开始执行 task，参数为线程序号
+	 */
+	private void runConcurrently(IntConsumer task) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		CyclicBarrier barrier = new CyclicBarrier(THREADS);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < THREADS; t++) {
+				int thread = t;
+				futures.add(pool.submit(() -> {
+					barrier.await();
+					task.accept(thread);
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get(1, TimeUnit.MINUTES);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private void addToCart(Integer productId) {
+		CartAddForm form = new CartAddForm();
+		form.setProductId(productId);
+		cartService.add(uid, form);
+	}
+}
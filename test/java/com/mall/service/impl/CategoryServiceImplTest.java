@@ -0,0 +1,148 @@
+package com.mall.service.impl;
+
+import com.mall.cache.CategoryIndex;
+import com.mall.dao.CategoryMapper;
+import com.mall.pojo.Category;
+import com.mall.vo.CategoryVo;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+
+import static com.mall.consts.MallConst.ROOT_PARENT_ID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 类目树与子类目查询的耗时：随机生成 CATEGORY_COUNT 个类目，不依赖 mysql
+ * 耗时打日志对比，断言只给一个宽松的上限，防止退化回逐层查库/递归遍历全表
+ */
+@Slf4j
+class CategoryServiceImplTest {
+
+	private static final int CATEGORY_COUNT = 3000;
+
+	private static final int ROOT_COUNT = 20;
+
+	private static final int ROUNDS = 50;
+
+	/** 单次重建类目树（含索引重建）的平均耗时上限 */
+	private static final long MAX_REBUILD_MILLIS = 100;
+
+	/** 全部类目各查一次子类目的总耗时上限 */
+	private static final long MAX_FIND_ALL_MILLIS = 100;
+
+	private CategoryServiceImpl categoryService;
+
+	private CategoryIndex categoryIndex;
+
+	private List<Category> categories;
+
+	@BeforeEach
+	void setUp() {
+		//固定种子：前 ROOT_COUNT 个为一级类目，其余挂在任一更早生成的类目下，层级深浅不一
+		Random random = new Random(CATEGORY_COUNT);
+		categories = new ArrayList<>();
+		for (int id = 1; id <= CATEGORY_COUNT; id++) {
+			Category category = new Category();
+			category.setId(id);
+			category.setParentId(id <= ROOT_COUNT ? ROOT_PARENT_ID : 1 + random.nextInt(id - 1));
+			category.setName("category-" + id);
+			category.setStatus(true);
+			category.setSortOrder(random.nextInt(100));
+			category.setUpdateTime(new Date());
+			categories.add(category);
+		}
+
+		CategoryMapper categoryMapper = mock(CategoryMapper.class);
+		when(categoryMapper.selectAll()).thenReturn(categories);
+		categoryIndex = new CategoryIndex();
+		ReflectionTestUtils.setField(categoryIndex, "categoryMapper", categoryMapper);
+		categoryService = new CategoryServiceImpl();
+		ReflectionTestUtils.setField(categoryService, "categoryIndex", categoryIndex);
+	}
+
+	@Test
+	void selectAllBuildsTreeOfAllCategories() {
+		List<CategoryVo> tree = categoryService.selectAll().getData();
+		assertEquals(ROOT_COUNT, tree.size());
+
+		int nodes = 0;
+		Deque<CategoryVo> stack = new ArrayDeque<>(tree);
+		while (!stack.isEmpty()) {
+			CategoryVo categoryVo = stack.pop();
+			nodes++;
+			List<CategoryVo> sub = categoryVo.getSubCategories();
+			for (int i = 1; i < sub.size(); i++) {
+				assertTrue(sub.get(i - 1).getSortOrder() >= sub.get(i).getSortOrder());
+			}
+			stack.addAll(sub);
+		}
+		assertEquals(CATEGORY_COUNT, nodes);
+
+		//索引未刷新时直接返回同一个结果
+		assertTrue(tree == categoryService.selectAll().getData());
+	}
+
+	@Test
+	void findSubCategoryIdMatchesNaiveTraversal() {
+		Map<Integer, List<Integer>> childIds = new HashMap<>();
+		for (Category category : categories) {
+			childIds.computeIfAbsent(category.getParentId(), k -> new ArrayList<>()).add(category.getId());
+		}
+		for (Category category : categories) {
+			Set<Integer> expected = new HashSet<>();
+			Deque<Integer> stack = new ArrayDeque<>(childIds.getOrDefault(category.getId(), Collections.emptyList()));
+			while (!stack.isEmpty()) {
+				Integer id = stack.pop();
+				expected.add(id);
+				stack.addAll(childIds.getOrDefault(id, Collections.emptyList()));
+			}
+
+			Set<Integer> resultSet = new HashSet<>();
+			categoryService.findSubCategoryId(category.getId(), resultSet);
+			assertEquals(expected, resultSet);
+		}
+	}
+
+	@Test
+	void treeAndSubCategoryTiming() {
+		//预热：让 JIT 编译构建与查询路径
+		for (int i = 0; i < ROUNDS; i++) {
+			categoryService.refresh();
+			categoryService.selectAll();
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			categoryService.refresh();
+			categoryService.selectAll();
+		}
+		long rebuildMicros = (System.nanoTime() - start) / 1000 / ROUNDS;
+
+		start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			categoryService.selectAll();
+		}
+		long cachedMicros = (System.nanoTime() - start) / 1000 / ROUNDS;
+
+		start = System.nanoTime();
+		int total = 0;
+		for (Category category : categories) {
+			Set<Integer> resultSet = new HashSet<>();
+			categoryService.findSubCategoryId(category.getId(), resultSet);
+			total += resultSet.size();
+		}
+		long findAllMicros = (System.nanoTime() - start) / 1000;
+
+		log.info("[CategoryTiming] {} 个类目：重建索引+类目树 平均 {}us，命中缓存的类目树 平均 {}us，"
+						+ "全部类目查子类目 共 {}us（子孙总数 {}）",
+				CATEGORY_COUNT, rebuildMicros, cachedMicros, findAllMicros, total);
+		assertTrue(rebuildMicros < MAX_REBUILD_MILLIS * 1000);
+		assertTrue(findAllMicros < MAX_FIND_ALL_MILLIS * 1000);
+	}
+}
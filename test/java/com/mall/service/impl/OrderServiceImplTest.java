@@ -0,0 +1,156 @@
+package com.mall.service.impl;
+
+import com.mall.cache.ProductCache;
+import com.mall.dao.OrderItemMapper;
+import com.mall.dao.OrderMapper;
+import com.mall.dao.ProductMapper;
+import com.mall.dao.ShippingMapper;
+import com.mall.enums.ProductStatusEnum;
+import com.mall.enums.ResponseEnum;
+import com.mall.form.CartAddForm;
+import com.mall.pojo.Order;
+import com.mall.pojo.OrderItem;
+import com.mall.pojo.Product;
+import com.mall.pojo.Shipping;
+import com.mall.service.ICartService;
+import com.mall.service.IOrderService;
+import com.mall.vo.OrderVo;
+import com.mall.vo.ResponseVo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 下单压测：大量用户同时抢购库存有限的同一商品，不超卖、不少卖
+ * 需要本地 mysql、redis、rabbitmq；用随机 uid 和新建的商品、收货地址，结束后删除
+ */
+@SpringBootTest
+class OrderServiceImplTest {
+
+	private static final int STOCK = 20;
+
+	private static final int BUYERS = 100;
+
+	@Autowired
+	private IOrderService orderService;
+
+	@Autowired
+	private ICartService cartService;
+
+	@Autowired
+	private ProductMapper productMapper;
+
+	@Autowired
+	private ShippingMapper shippingMapper;
+
+	@Autowired
+	private OrderMapper orderMapper;
+
+	@Autowired
+	private OrderItemMapper orderItemMapper;
+
+	@Autowired
+	private ProductCache productCache;
+
+	@Autowired
+	private StringRedisTemplate redisTemplate;
+
+	private Integer productId;
+
+	/** uid -> shippingId */
+	private final Map<Integer, Integer> buyers = new LinkedHashMap<>();
+
+	@BeforeEach
+	void setUp() {
+		Product product = new Product();
+		product.setCategoryId(100001);
+		product.setName("checkout-test-" + UUID.randomUUID());
+		product.setPrice(BigDecimal.ONE);
+		product.setStock(STOCK);
+		product.setStatus(ProductStatusEnum.ON_SALE.getCode());
+		productMapper.insertSelective(product);
+		productId = product.getId();
+
+		int firstUid = ThreadLocalRandom.current().nextInt(100_000_000, Integer.MAX_VALUE - BUYERS);
+		for (int uid = firstUid; uid < firstUid + BUYERS; uid++) {
+			Shipping shipping = new Shipping();
+			shipping.setUserId(uid);
+			shipping.setReceiverName("checkout-test");
+			shippingMapper.insertSelective(shipping);
+			buyers.put(uid, shipping.getId());
+
+			CartAddForm form = new CartAddForm();
+			form.setProductId(productId);
+			cartService.add(uid, form);
+		}
+	}
+
+	@AfterEach
+	void tearDown() {
+		for (Map.Entry<Integer, Integer> buyer : buyers.entrySet()) {
+			Integer uid = buyer.getKey();
+			for (Order order : orderMapper.selectByUid(uid)) {
+				for (OrderItem item : orderItemMapper.selectByOrderNoSet(Collections.singleton(order.getOrderNo()))) {
+					orderItemMapper.deleteByPrimaryKey(item.getId());
+				}
+				orderMapper.deleteByPrimaryKey(order.getId());
+			}
+			shippingMapper.deleteByPrimaryKey(buyer.getValue());
+			redisTemplate.delete(Arrays.asList("cart_" + uid, "cart_sum_" + uid));
+		}
+		productMapper.deleteByPrimaryKey(productId);
+		productCache.evict(productId);
+	}
+
+	@Test
+	void concurrentCheckoutsDoNotOversell() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(BUYERS);
+		CyclicBarrier barrier = new CyclicBarrier(BUYERS);
+		AtomicInteger succeeded = new AtomicInteger();
+		AtomicInteger soldOut = new AtomicInteger();
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (Map.Entry<Integer, Integer> buyer : buyers.entrySet()) {
+				futures.add(pool.submit(() -> {
+					barrier.await();
+					ResponseVo<OrderVo> result = orderService.create(buyer.getKey(), buyer.getValue());
+					if (ResponseEnum.SUCCESS.getCode().equals(result.getStatus())) {
+						succeeded.incrementAndGet();
+					} else if (ResponseEnum.PROODUCT_STOCK_ERROR.getCode().equals(result.getStatus())) {
+						soldOut.incrementAndGet();
+					}
+					return null;
+				}));
+			}
+			//死锁、锁等待超时会以异常的形式在这里抛出
+			for (Future<?> future : futures) {
+				future.get(2, TimeUnit.MINUTES);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+
+		assertEquals(STOCK, succeeded.get());
+		assertEquals(BUYERS - STOCK, soldOut.get());
+		assertEquals(0, productMapper.selectByPrimaryKey(productId).getStock().intValue());
+
+		int orders = 0;
+		for (Integer uid : buyers.keySet()) {
+			List<Order> orderList = orderMapper.selectByUid(uid);
+			assertTrue(orderList.size() <= 1);
+			orders += orderList.size();
+		}
+		assertEquals(STOCK, orders);
+	}
+}